@@ -0,0 +1,96 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** Measures the compression ratio and speed of each codec on a corpus of
+ *  files, to help choose a repository's core.compression setting.
+ *  Usage, from proj2: mvn -f benchmarks/pom.xml package, then
+ *  java -cp benchmarks/target/benchmarks.jar gitlet.CodecBenchmark
+ *  [FILE or DIRECTORY]...
+ *  With no arguments, the corpus is the current directory.  Files under
+ *  .gitlet directories are skipped, and each file is treated as one blob.
+ *  @author Zhang Yusen
+ */
+public class CodecBenchmark {
+
+    /** Number of timed passes over the corpus for each codec. */
+    private static final int ROUNDS = 5;
+
+    /** Runs the benchmark on the files named by ARGS. */
+    public static void main(String[] args) {
+        List<byte[]> corpus = new ArrayList<>();
+        if (args.length == 0) {
+            collect(new File("."), corpus);
+        }
+        for (String arg : args) {
+            collect(new File(arg), corpus);
+        }
+        long rawBytes = 0;
+        for (byte[] blob : corpus) {
+            rawBytes += blob.length;
+        }
+        if (rawBytes == 0) {
+            System.out.println("No files to compress.");
+            return;
+        }
+        System.out.printf("%d files, %d bytes%n", corpus.size(), rawBytes);
+        System.out.printf("%-14s %10s %14s %14s%n",
+                          "codec", "ratio", "compress MB/s", "inflate MB/s");
+        for (Codec codec : Codec.ALL) {
+            List<byte[]> compressed = new ArrayList<>();
+            long compressedBytes = 0;
+            for (byte[] blob : corpus) {
+                byte[] data = codec.compress(blob);
+                compressed.add(data);
+                compressedBytes += data.length;
+            }
+            long compressNanos = Long.MAX_VALUE;
+            long inflateNanos = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round += 1) {
+                long start = System.nanoTime();
+                for (byte[] blob : corpus) {
+                    codec.compress(blob);
+                }
+                long middle = System.nanoTime();
+                for (int i = 0; i < corpus.size(); i += 1) {
+                    byte[] data = compressed.get(i);
+                    codec.decompress(data, 0, data.length, corpus.get(i).length);
+                }
+                long end = System.nanoTime();
+                compressNanos = Math.min(compressNanos, middle - start);
+                inflateNanos = Math.min(inflateNanos, end - middle);
+            }
+            System.out.printf("%-14s %10.3f %14.1f %14.1f%n", codec.name(),
+                              (double) rawBytes / compressedBytes,
+                              megabytesPerSecond(rawBytes, compressNanos),
+                              megabytesPerSecond(rawBytes, inflateNanos));
+        }
+    }
+
+    /** Adds the contents of FILE, or of every file under it if it is a
+     *  directory, to CORPUS. */
+    private static void collect(File file, List<byte[]> corpus) {
+        if (file.isFile()) {
+            if (file.length() < ObjectStore.LARGE_BLOB) {
+                corpus.add(readContents(file));
+            }
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children == null || file.getName().equals(".gitlet")) {
+            return;
+        }
+        for (File child : children) {
+            collect(child, corpus);
+        }
+    }
+
+    /** Returns the speed of processing BYTES bytes in NANOS nanoseconds. */
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return bytes / 1e6 / Math.max(nanos, 1) * 1e9;
+    }
+}
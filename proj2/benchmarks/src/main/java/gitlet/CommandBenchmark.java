@@ -0,0 +1,214 @@
+package gitlet;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static gitlet.Utils.*;
+
+/** Measures gitlet commands, run in-process through Repository, on a
+ *  SyntheticRepo generated in a temporary directory for each fork.
+ *  Commands that change the repository are given what they need before
+ *  each call, outside the timing: a changed file for add and commit, a
+ *  reset of master for merge, and an empty repository to push into or
+ *  fetch into.
+ *  Usage, from proj2: mvn -f benchmarks/pom.xml package, then
+ *  java -jar benchmarks/target/benchmarks.jar [JMH OPTIONS], for example
+ *  -p files=10000 -rf csv -rff after.csv.
+ *  @author Zhang Yusen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandBenchmark {
+
+    /** Number of files in the working tree. */
+    @Param("1000")
+    int files;
+    /** Number of commits on master. */
+    @Param("100")
+    int commits;
+    /** Number of branches besides master and feature. */
+    @Param("10")
+    int branches;
+    /** Approximate size of each file, in bytes. */
+    @Param("1024")
+    int fileSize;
+
+    /** The generated repository. */
+    private SyntheticRepo synthetic;
+    /** Its Repository. */
+    private Repository repo;
+    /** The head of master once generated, to which merge resets. */
+    private String masterHead;
+    /** A copy of .gitlet as it was just after init, before any of the
+     *  generated files were committed, so that push and fetch into it
+     *  transfer every file. */
+    private File emptyGitlet;
+    /** A copy of .gitlet once the history was generated. */
+    private File fullGitlet;
+    /** The .gitlet of the remote pushed to. */
+    private File remoteGitlet;
+    /** Number of edits made by add and commit. */
+    private int edits;
+    /** Standard output, which is silenced while commands run. */
+    private PrintStream stdout;
+
+    /** Generates the repository in a new temporary directory. */
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        File root = Files.createTempDirectory("gitlet-bench").toFile();
+        File work = join(root, "work");
+        work.mkdir();
+        System.setProperty("user.dir", work.getPath());
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        synthetic = new SyntheticRepo(files, fileSize, 61);
+        emptyGitlet = join(root, "empty.gitlet");
+        SyntheticRepo.copyDirectory(Repository.GITLET_DIR, emptyGitlet);
+        synthetic.generateHistory(commits, branches);
+        repo = synthetic.repo();
+        masterHead = readContentsAsString(Repository.HEAD);
+        fullGitlet = join(root, "full.gitlet");
+        SyntheticRepo.copyDirectory(Repository.GITLET_DIR, fullGitlet);
+        remoteGitlet = join(root, "remote.gitlet");
+        repo.addRemote("origin", remoteGitlet.getPath());
+    }
+
+    /** Deletes the temporary directory and restores standard output. */
+    @TearDown(Level.Trial)
+    public void cleanUp() {
+        System.setOut(stdout);
+        SyntheticRepo.deleteDirectory(Repository.CWD.getParentFile());
+    }
+
+    /** Edits the next of the generated files. */
+    private void editFile() {
+        String path = synthetic.paths().get(edits % files);
+        edits += 1;
+        synthetic.edit(path, edits % Math.max(1, fileSize / 64));
+    }
+
+    /** The state of a benchmark that needs an edited working file. */
+    @State(Scope.Benchmark)
+    public static class Edited {
+        /** Edits a file. */
+        @Setup(Level.Invocation)
+        public void edit(CommandBenchmark bench) {
+            bench.editFile();
+        }
+    }
+
+    /** Adds the whole working tree, in which one file has changed. */
+    @Benchmark
+    public void add(Edited state) {
+        repo.add(".");
+    }
+
+    /** The state of a benchmark that needs a staged change. */
+    @State(Scope.Benchmark)
+    public static class Staged {
+        /** Edits a file and stages it. */
+        @Setup(Level.Invocation)
+        public void stage(CommandBenchmark bench) {
+            bench.editFile();
+            bench.repo.add(".");
+        }
+    }
+
+    @Benchmark
+    public void commit(Staged state) {
+        repo.commit("edit " + edits);
+    }
+
+    @Benchmark
+    public void status() {
+        repo.status();
+    }
+
+    @Benchmark
+    public void log() {
+        repo.log();
+    }
+
+    /** Checks out feature and master in turn, so that each call changes
+     *  the files the two branches disagree on. */
+    @Benchmark
+    public void checkout() {
+        String current = readContentsAsString(Repository.CURRENT_BRANCH);
+        repo.checkoutBranch(current.equals("master") ? "feature" : "master");
+    }
+
+    /** The state of a benchmark that needs master at its generated head. */
+    @State(Scope.Benchmark)
+    public static class AtMasterHead {
+        /** Resets master, undoing the last merge. */
+        @Setup(Level.Invocation)
+        public void reset(CommandBenchmark bench) {
+            bench.repo.checkoutBranch("master");
+            bench.repo.reset(bench.masterHead);
+        }
+    }
+
+    @Benchmark
+    public void merge(AtMasterHead state) {
+        repo.merge("feature");
+    }
+
+    /** The state of a benchmark that pushes into an empty remote. */
+    @State(Scope.Benchmark)
+    public static class EmptyRemote {
+        /** Replaces the remote with an empty repository. */
+        @Setup(Level.Invocation)
+        public void empty(CommandBenchmark bench) {
+            SyntheticRepo.copyDirectory(bench.emptyGitlet, bench.remoteGitlet);
+        }
+    }
+
+    @Benchmark
+    public void push(EmptyRemote state) {
+        repo.push("origin", "master");
+    }
+
+    /** The state of a benchmark that fetches the generated history into an
+     *  empty repository. */
+    @State(Scope.Benchmark)
+    public static class EmptyLocal {
+        /** The repository fetched into. */
+        private Repository empty;
+
+        /** Replaces .gitlet with an empty repository whose remote
+         *  "upstream" holds the generated history. */
+        @Setup(Level.Invocation)
+        public void empty(CommandBenchmark bench) {
+            SyntheticRepo.copyDirectory(bench.emptyGitlet, Repository.GITLET_DIR);
+            empty = new Repository();
+            empty.addRemote("upstream", bench.fullGitlet.getPath());
+        }
+    }
+
+    @Benchmark
+    public void fetch(EmptyLocal state) {
+        state.empty.fetch("upstream", "master");
+    }
+}
@@ -0,0 +1,97 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** Compares two JMH reports written with -rf csv, such as those of
+ *  CommandBenchmark before and after a change.  For each benchmark and
+ *  set of parameters in both, prints the two scores and their ratio,
+ *  marking with "!" those that got slower by more than the larger of
+ *  THRESHOLD and the two error bounds combined.
+ *  Usage: java gitlet.CompareResults BEFORE.csv AFTER.csv [THRESHOLD],
+ *  where THRESHOLD is a fraction defaulting to 0.1.  Exits with status 1
+ *  if any benchmark got slower.
+ *  @author Zhang Yusen
+ */
+public class CompareResults {
+
+    /** Compares the reports ARGS[0] and ARGS[1]. */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java gitlet.CompareResults BEFORE.csv AFTER.csv "
+                               + "[THRESHOLD]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.1;
+        Map<String, double[]> before = read(new File(args[0]));
+        Map<String, double[]> after = read(new File(args[1]));
+        boolean slower = false;
+        System.out.printf("%-60s %12s %12s %8s%n", "benchmark", "before", "after", "ratio");
+        for (Map.Entry<String, double[]> entry : after.entrySet()) {
+            double[] old = before.get(entry.getKey());
+            if (old == null) {
+                continue;
+            }
+            double[] now = entry.getValue();
+            double ratio = now[0] / old[0];
+            double allowed = Math.max(threshold, (old[1] + now[1]) / old[0]);
+            boolean worse = ratio - 1 > allowed;
+            slower |= worse;
+            System.out.printf("%-60s %12.3f %12.3f %7.2fx%s%n", entry.getKey(),
+                              old[0], now[0], ratio, worse ? " !" : "");
+        }
+        System.exit(slower ? 1 : 0);
+    }
+
+    /** Returns the scores and score errors in the CSV report FILE, keyed
+     *  by benchmark name and parameters, in the order of the report. */
+    private static Map<String, double[]> read(File file) {
+        Map<String, double[]> result = new LinkedHashMap<>();
+        String[] lines = readContentsAsString(file).split("\r?\n");
+        List<String> header = fields(lines[0]);
+        int score = header.indexOf("Score");
+        int error = header.indexOf("Score Error (99.9%)");
+        for (int i = 1; i < lines.length; i += 1) {
+            List<String> row = fields(lines[i]);
+            if (row.size() != header.size()) {
+                continue;
+            }
+            StringBuilder key = new StringBuilder(row.get(0));
+            for (int k = 0; k < header.size(); k += 1) {
+                if (header.get(k).startsWith("Param: ")) {
+                    key.append(' ').append(header.get(k).substring(7)).append('=')
+                        .append(row.get(k));
+                }
+            }
+            double err = row.get(error).equals("NaN") ? 0 : Double.parseDouble(row.get(error));
+            result.put(key.toString(), new double[] {Double.parseDouble(row.get(score)), err});
+        }
+        return result;
+    }
+
+    /** Returns the fields of LINE, a line of comma-separated values that
+     *  may be quoted. */
+    private static List<String> fields(String line) {
+        List<String> result = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                result.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        result.add(field.toString());
+        return result;
+    }
+}
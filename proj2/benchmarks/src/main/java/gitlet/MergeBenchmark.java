@@ -0,0 +1,65 @@
+package gitlet;
+
+import java.util.Random;
+
+/** Measures the speed of Merge3 on large generated files.  The base is a
+ *  file of distinct lines; one version edits a line in every hundred and
+ *  inserts lines here and there, and the other does the same at
+ *  different places, so that the merge is clean.  A third version that
+ *  also edits some of the first version's lines measures a merge with
+ *  conflicts.
+ *  Usage, from proj2: mvn -f benchmarks/pom.xml package, then
+ *  java -cp benchmarks/target/benchmarks.jar gitlet.MergeBenchmark [LINES],
+ *  where LINES defaults to 100000.
+ *  @author Zhang Yusen
+ */
+public class MergeBenchmark {
+
+    /** Number of timed merges of each kind. */
+    private static final int ROUNDS = 10;
+
+    /** Runs the benchmark on files of ARGS[0] lines. */
+    public static void main(String[] args) {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Random random = new Random(61);
+        String base = generate(lines, random, -1, 0);
+        String ours = generate(lines, random, 100, 0);
+        String theirs = generate(lines, random, 100, 50);
+        String conflicting = generate(lines, random, 50, 0);
+        System.out.printf("%d lines, %d bytes%n", lines, base.length());
+        System.out.printf("%-12s %10s %10s%n", "merge", "ms", "conflicts");
+        report("clean", base, ours, theirs);
+        report("conflicting", base, ours, conflicting);
+    }
+
+    /** Prints the best time of merging OURS and THEIRS from BASE, labeled
+     *  NAME. */
+    private static void report(String name, String base, String ours, String theirs) {
+        long best = Long.MAX_VALUE;
+        int conflicts = 0;
+        for (int round = 0; round < ROUNDS; round += 1) {
+            long start = System.nanoTime();
+            conflicts = new Merge3(base, ours, theirs).conflicts();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-12s %10.1f %10d%n", name, best / 1e6, conflicts);
+    }
+
+    /** Returns a file of LINES lines in which, if EVERY is positive, the
+     *  line at OFFSET in each block of EVERY lines is edited using RANDOM
+     *  and every tenth such block gains a line. */
+    private static String generate(int lines, Random random, int every, int offset) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < lines; i += 1) {
+            if (every > 0 && i % every == offset) {
+                result.append("edited ").append(random.nextInt()).append('\n');
+                if (i / every % 10 == 0) {
+                    result.append("inserted ").append(random.nextInt()).append('\n');
+                }
+            } else {
+                result.append("line ").append(i).append(" of the original text\n");
+            }
+        }
+        return result.toString();
+    }
+}
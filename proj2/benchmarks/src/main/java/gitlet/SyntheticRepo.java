@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/** A generated repository for the benchmarks: FILES text files of about
+ *  FILESIZE bytes each, a hundred to a directory, with a history of
+ *  COMMITS commits on master that each edit one file in a hundred, and
+ *  BRANCHES branches at points spread along that history.  A branch
+ *  "feature" then diverges from master, both sides editing different
+ *  lines of the same files, so that merging it is clean but line by
+ *  line.
+ *
+ *  gitlet's paths are fixed when Repository is loaded, from the property
+ *  user.dir, so a repository can be generated only in that directory and
+ *  only once per JVM; JMH runs each benchmark in a fresh fork.
+ *  @author Zhang Yusen
+ */
+class SyntheticRepo {
+
+    /** Length of a generated line, including its newline. */
+    private static final int LINE_LENGTH = 64;
+
+    /** The repository, in the current directory. */
+    private final Repository repo;
+    /** Source of the generated text. */
+    private final Random random;
+    /** Lines in each file. */
+    private final int lines;
+    /** Paths of the generated files. */
+    private final List<String> paths = new ArrayList<>();
+    /** Number of edits made so far, which keeps every edit distinct. */
+    private int edits;
+
+    /** Initializes a repository in the current directory and fills its
+     *  working tree with FILES files of FILESIZE bytes, generated from
+     *  SEED, leaving them untracked until generateHistory. */
+    SyntheticRepo(int files, int fileSize, long seed) {
+        Repository.setupPersistence();
+        repo = new Repository();
+        random = new Random(seed);
+        lines = Math.max(1, fileSize / LINE_LENGTH);
+        for (int i = 0; i < files; i += 1) {
+            String path = String.format("d%03d/f%05d.txt", i / 100, i);
+            paths.add(path);
+            StringBuilder text = new StringBuilder();
+            for (int k = 0; k < lines; k += 1) {
+                text.append(line(path, k));
+            }
+            File file = join(Repository.CWD, path);
+            file.getParentFile().mkdirs();
+            writeContents(file, text.toString());
+        }
+    }
+
+    /** Returns the repository. */
+    Repository repo() {
+        return repo;
+    }
+
+    /** Returns the paths of the generated files. */
+    List<String> paths() {
+        return paths;
+    }
+
+    /** Commits the generated files, then makes COMMITS commits on the
+     *  current branch, creating a branch at every (COMMITS / BRANCHES)th,
+     *  and then the branch "feature" as described above.  Leaves master
+     *  checked out. */
+    void generateHistory(int commits, int branches) {
+        repo.add(List.copyOf(paths));
+        repo.commit("generated files");
+        int perCommit = Math.max(1, paths.size() / 100);
+        int branchEvery = Math.max(1, commits / Math.max(1, branches));
+        for (int c = 0; c < commits; c += 1) {
+            List<String> changed = new ArrayList<>();
+            for (int k = 0; k < perCommit; k += 1) {
+                String path = paths.get(random.nextInt(paths.size()));
+                edit(path, random.nextInt(lines));
+                changed.add(path);
+            }
+            repo.add(changed);
+            repo.commit("commit " + c);
+            if (c % branchEvery == 0 && c / branchEvery < branches) {
+                repo.branch("b" + (c / branchEvery));
+            }
+        }
+
+        List<String> shared = paths.subList(0, perCommit);
+        repo.branch("feature");
+        repo.checkoutBranch("feature");
+        for (String path : shared) {
+            edit(path, 0);
+        }
+        repo.add(List.copyOf(shared));
+        repo.commit("feature edits");
+        repo.checkoutBranch("master");
+        for (String path : shared) {
+            edit(path, lines - 1);
+        }
+        repo.add(List.copyOf(shared));
+        repo.commit("master edits");
+    }
+
+    /** Replaces line LINE of the working file PATH. */
+    void edit(String path, int line) {
+        File file = join(Repository.CWD, path);
+        String[] text = readContentsAsString(file).split("\n", -1);
+        edits += 1;
+        text[line] = String.format("edit %d of line %d", edits, line);
+        writeContents(file, String.join("\n", text));
+    }
+
+    /** Returns line K of the generated file PATH. */
+    private String line(String path, int k) {
+        StringBuilder result = new StringBuilder(LINE_LENGTH);
+        result.append(path).append(' ').append(k).append(' ');
+        while (result.length() < LINE_LENGTH - 1) {
+            result.append((char) ('a' + random.nextInt(26)));
+        }
+        return result.append('\n').toString();
+    }
+
+    /** Replaces the directory TO with a copy of the directory FROM. */
+    static void copyDirectory(File from, File to) {
+        deleteDirectory(to);
+        Path source = from.toPath();
+        Path target = to.toPath();
+        try (Stream<Path> walk = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) walk::iterator) {
+                Files.copy(path, target.resolve(source.relativize(path)));
+            }
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    /** Deletes the directory DIR and everything under it, if it exists. */
+    static void deleteDirectory(File dir) {
+        if (!dir.exists()) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(dir.toPath())) {
+            walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+}
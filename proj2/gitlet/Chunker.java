@@ -0,0 +1,126 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Splits a stream into chunks whose boundaries depend on the bytes
+ *  around them rather than on their offsets, in the manner of FastCDC, so
+ *  that an insertion near the start of a large file changes only the
+ *  chunks around it and the rest are stored once for both versions.
+ *
+ *  A gear hash, shifted one bit per byte, is kept over the bytes after
+ *  the first MIN_SIZE of a chunk, and the chunk ends where the hash has
+ *  zeros under a mask.  Before AVERAGE_SIZE the mask has more bits, and
+ *  after it fewer, which keeps most chunks near the average size; no
+ *  chunk is longer than MAX_SIZE.
+ *  @author Zhang Yusen
+ */
+class Chunker {
+
+    /** Size of the shortest chunk, other than the last. */
+    static final int MIN_SIZE = 16 << 10;
+    /** Size around which chunk lengths cluster. */
+    static final int AVERAGE_SIZE = 64 << 10;
+    /** Size of the longest chunk. */
+    static final int MAX_SIZE = 256 << 10;
+
+    /** Mask of the hash bits that must be zero to cut before AVERAGE_SIZE. */
+    private static final long MASK_SMALL = mask(18);
+    /** Mask of the hash bits that must be zero to cut after AVERAGE_SIZE. */
+    private static final long MASK_LARGE = mask(14);
+    /** Random value added to the hash for each byte value.  The seed is
+     *  fixed, since chunks from different runs must line up. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x67697466L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** The stream being split. */
+    private final InputStream in;
+    /** Bytes read from IN and not yet returned; those in [start, end). */
+    private final byte[] buffer = new byte[2 * MAX_SIZE];
+    private int start;
+    private int end;
+    /** True iff IN has no more bytes. */
+    private boolean eof;
+
+    /** A chunker splitting the contents of IN. */
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /** Returns the next chunk, or null after the last. */
+    byte[] next() {
+        fill();
+        if (start == end) {
+            return null;
+        }
+        int length = cut(buffer, start, end);
+        byte[] chunk = Arrays.copyOfRange(buffer, start, start + length);
+        start += length;
+        return chunk;
+    }
+
+    /** Returns the length of the first chunk of DATA[FROM, TO), assuming
+     *  that the data continues no further if TO - FROM < MAX_SIZE. */
+    static int cut(byte[] data, int from, int to) {
+        int size = to - from;
+        if (size <= MIN_SIZE) {
+            return size;
+        }
+        int limit = Math.min(size, MAX_SIZE);
+        int normal = Math.min(limit, AVERAGE_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[from + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i += 1) {
+            hash = (hash << 1) + GEAR[data[from + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /** Reads from IN until the buffer holds at least MAX_SIZE unreturned
+     *  bytes or IN is exhausted. */
+    private void fill() {
+        if (eof || end - start >= MAX_SIZE) {
+            return;
+        }
+        System.arraycopy(buffer, start, buffer, 0, end - start);
+        end -= start;
+        start = 0;
+        try {
+            while (end < buffer.length) {
+                int count = in.read(buffer, end, buffer.length - end);
+                if (count < 0) {
+                    eof = true;
+                    return;
+                }
+                end += count;
+            }
+        } catch (IOException excp) {
+            throw error("Cannot read: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns a mask of the top BITS bits of a hash, the ones that depend
+     *  on the most bytes. */
+    private static long mask(int bits) {
+        return ((1L << bits) - 1) << (Long.SIZE - bits);
+    }
+}
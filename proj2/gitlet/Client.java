@@ -0,0 +1,53 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/** A thin command-line client for Daemon.  It forwards its arguments to
+ *  the daemon serving the repository in the current directory and prints
+ *  the reply, loading almost none of gitlet.  If no daemon is running, it
+ *  runs the command itself, exactly like Main.
+ *  Usage: java gitlet.Client ARGS, with ARGS as for Main.
+ *  @author Zhang Yusen
+ */
+public class Client {
+
+    /** Runs the command ARGS, through the daemon if there is one. */
+    public static void main(String[] args) {
+        File socket = new File(new File(System.getProperty("user.dir"), ".gitlet"),
+                               "daemon.sock");
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath()));
+        } catch (IOException excp) {
+            Main.main(args);
+            return;
+        }
+        int status;
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            byte[] output = new byte[in.readInt()];
+            in.readFully(output);
+            System.out.write(output);
+            System.out.flush();
+            status = in.readInt();
+        } catch (IOException excp) {
+            System.out.println("Lost connection to gitlet daemon: " + excp.getMessage());
+            status = 1;
+        }
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+}
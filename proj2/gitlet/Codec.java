@@ -0,0 +1,149 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static gitlet.Utils.*;
+
+/** A compression algorithm for stored objects.  Every codec has a one-byte
+ *  id, recorded with each object it compresses, so that objects stay
+ *  readable whatever codec a repository is later configured to use, and
+ *  a name, used in the repository's config file.
+ *  @author Zhang Yusen
+ */
+interface Codec {
+
+    /** Stores objects as they are. */
+    Codec NONE = new Codec() {
+        @Override
+        public byte id() {
+            return 0;
+        }
+
+        @Override
+        public String name() {
+            return "none";
+        }
+
+        @Override
+        public byte[] compress(byte[] contents) {
+            return contents;
+        }
+
+        @Override
+        public byte[] decompress(byte[] data, int offset, int length, int size) {
+            byte[] result = new byte[size];
+            System.arraycopy(data, offset, result, 0, size);
+            return result;
+        }
+    };
+
+    /** zlib at its default level: a good ratio at moderate speed. */
+    Codec DEFLATE = new DeflateCodec((byte) 1, "deflate", Deflater.DEFAULT_COMPRESSION);
+
+    /** zlib at its fastest level, for repositories that write a lot. */
+    Codec DEFLATE_FAST = new DeflateCodec((byte) 2, "deflate-fast", Deflater.BEST_SPEED);
+
+    /** All codecs, by id. */
+    Codec[] ALL = {NONE, DEFLATE, DEFLATE_FAST};
+
+    /** Returns the id recorded with objects compressed by this codec. */
+    byte id();
+
+    /** Returns the name of this codec in config files. */
+    String name();
+
+    /** Returns CONTENTS compressed. */
+    byte[] compress(byte[] contents);
+
+    /** Returns the SIZE bytes whose compressed form is the LENGTH bytes of
+     *  DATA starting at OFFSET. */
+    byte[] decompress(byte[] data, int offset, int length, int size);
+
+    /** Returns the codec with id ID. */
+    static Codec forId(byte id) {
+        for (Codec codec : ALL) {
+            if (codec.id() == id) {
+                return codec;
+            }
+        }
+        throw error("Unknown compression codec %d.", id);
+    }
+
+    /** Returns the codec called NAME, or null if there is none. */
+    static Codec forName(String name) {
+        for (Codec codec : ALL) {
+            if (codec.name().equals(name)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /** A codec using java.util.zip at a fixed level. */
+    class DeflateCodec implements Codec {
+        /** The id of this codec. */
+        private final byte id;
+        /** The name of this codec. */
+        private final String name;
+        /** The zlib compression level. */
+        private final int level;
+
+        DeflateCodec(byte id, String name, int level) {
+            this.id = id;
+            this.name = name;
+            this.level = level;
+        }
+
+        @Override
+        public byte id() {
+            return id;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public byte[] compress(byte[] contents) {
+            Deflater deflater = new Deflater(level);
+            deflater.setInput(contents);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(contents.length / 2 + 64);
+            byte[] buffer = new byte[1 << 16];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            deflater.end();
+            return out.toByteArray();
+        }
+
+        @Override
+        public byte[] decompress(byte[] data, int offset, int length, int size) {
+            Inflater inflater = new Inflater();
+            inflater.setInput(data, offset, length);
+            byte[] result = new byte[size];
+            try {
+                int done = 0;
+                while (done < size && !inflater.finished()) {
+                    int n = inflater.inflate(result, done, size - done);
+                    if (n == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                    done += n;
+                }
+                if (done != size) {
+                    throw error("Corrupt compressed object.");
+                }
+            } catch (DataFormatException excp) {
+                throw error("Corrupt compressed object.");
+            } finally {
+                inflater.end();
+            }
+            return result;
+        }
+    }
+}
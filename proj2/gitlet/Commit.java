@@ -1,23 +1,55 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
 /** Represents a gitlet commit object.
  *  does at a high level.
  *
+ *  Commits are stored in a versioned binary encoding (see encode), and a
+ *  commit's id is the SHA-1 of that encoding.  Commits written by older
+ *  versions of gitlet are Java-serialized; they are still Serializable so
+ *  that they can be read, and gc rewrites them in the new encoding.
+ *
+ *  A commit's files are recorded as the id of its root Tree.  The map
+ *  from path to blob id returned by getBlobs is built from the tree the
+ *  first time it is asked for.  Commits from before trees existed carry
+ *  that map directly and have no tree.
+ *
  *  @author ZhangYusen
  */
 public class Commit implements Serializable {
 
+    /** Keeps commits serialized before the binary encoding readable. */
+    private static final long serialVersionUID = -33220073486231663L;
+
+    /** Magic number at the start of an encoded commit. */
+    static final int MAGIC = 0x474c4300;
+    /** Version of the encoding of commits that list their blobs. */
+    private static final byte VERSION_BLOBS = 1;
+    /** Version of the encoding of commits that refer to a tree. */
+    private static final byte VERSION_TREE = 2;
+
     private String message;
     private String date;
     private String parent;
     private String id;
     private HashMap<String, String> blobs;
     private String secondParent;
+    private String tree;
+    /** Store from which the tree can be read, if this commit was read
+     *  from one. */
+    private transient ObjectStore objects;
 
     public Commit(String message, String parent) {
         this.message = message;
@@ -35,6 +67,10 @@ public class Commit implements Serializable {
         }
     }
 
+    /** A commit filled in by decode. */
+    private Commit() {
+    }
+
     public String getMessage() {
         return message;
     }
@@ -48,9 +84,16 @@ public class Commit implements Serializable {
     }
 
     public HashMap<String, String> getBlobs() {
+        if (blobs == null && tree != null && objects != null) {
+            blobs = objects.flattenTree(tree);
+        }
         return blobs;
     }
 
+    public String getTree() {
+        return tree;
+    }
+
     public String getId() {
         return id;
     }
@@ -70,16 +113,130 @@ public class Commit implements Serializable {
     public void setSecondParent(String secondParent) {
         this.secondParent = secondParent;
     }
-}
-
-
-
 
+    /** Sets the root tree of this commit to TREE, which must be stored in
+     *  OBJECTS. */
+    void setTree(String tree, ObjectStore objects) {
+        this.tree = tree;
+        this.blobs = null;
+        this.objects = objects;
+    }
 
+    /** Makes this commit read its tree from OBJECTS. */
+    void attach(ObjectStore objects) {
+        this.objects = objects;
+    }
 
+    /** Returns the canonical binary encoding of this commit: a magic
+     *  number and version, the message, date and parents, and then either
+     *  the root tree or, for a commit without one, the tracked files sorted
+     *  by name.  Ids are written as 20 binary bytes.  The id of this commit
+     *  itself is not part of the encoding. */
+    byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC | (tree != null ? VERSION_TREE : VERSION_BLOBS));
+            writeString(out, message);
+            writeString(out, date);
+            writeId(out, parent);
+            writeId(out, secondParent);
+            if (tree != null) {
+                writeId(out, tree);
+                out.close();
+                return bytes.toByteArray();
+            }
+            TreeMap<String, String> sorted = new TreeMap<>();
+            if (blobs != null) {
+                sorted.putAll(blobs);
+            }
+            out.writeInt(sorted.size());
+            for (Map.Entry<String, String> entry : sorted.entrySet()) {
+                writeString(out, entry.getKey());
+                writeId(out, entry.getValue());
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding commit.");
+        }
+    }
 
+    /** Returns true iff BYTES start like the result of encode. */
+    static boolean isEncoded(byte[] bytes) {
+        return bytes.length >= 4
+            && ((bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16
+                | (bytes[2] & 0xff) << 8) == MAGIC;
+    }
 
+    /** Returns the commit with id ID whose encoding is BYTES. */
+    static Commit decode(String id, byte[] bytes) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            int version = in.readInt() & 0xff;
+            if (version != VERSION_BLOBS && version != VERSION_TREE) {
+                throw Utils.error("Unknown commit version %d.", version);
+            }
+            Commit commit = new Commit();
+            commit.id = id;
+            commit.message = readString(in);
+            commit.date = readString(in);
+            commit.parent = readId(in);
+            commit.secondParent = readId(in);
+            if (version == VERSION_TREE) {
+                commit.tree = readId(in);
+                return commit;
+            }
+            int n = in.readInt();
+            commit.blobs = new HashMap<>(n * 4 / 3 + 1);
+            for (int i = 0; i < n; i += 1) {
+                commit.blobs.put(readString(in), readId(in));
+            }
+            return commit;
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt commit %s.", id);
+        }
+    }
 
+    /** Writes the possibly null string S to OUT. */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
 
+    /** Writes the possibly null SHA-1 id ID to OUT in binary. */
+    private static void writeId(DataOutputStream out, String id) throws IOException {
+        if (id == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(1);
+        out.write(Utils.uidToBytes(id));
+    }
 
+    /** Reads an id written by writeId from IN. */
+    private static String readId(DataInputStream in) throws IOException {
+        if (in.readByte() == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[Utils.UID_LENGTH / 2];
+        in.readFully(bytes);
+        return Utils.bytesToUid(bytes, 0);
+    }
 
+    /** Reads a string written by writeString from IN. */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,368 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/** A persistent cache of the shape of the commit history, like git's
+ *  commit-graph file.  Every known commit gets a small integer position,
+ *  and the graph records the positions of its parents, its generation
+ *  number (one more than the largest generation of its parents) and its
+ *  commit time.  Ancestry questions are then answered by walking arrays
+ *  of ints, without reading any commits, and walks can stop early at
+ *  commits whose generation is too small to matter.
+ *
+ *  The file is a header followed by one fixed-size record per commit,
+ *  parents before children, so new commits are simply appended.  Commits
+ *  missing from the graph (for example in repositories created before it
+ *  existed) are added, with their ancestors, the first time they are
+ *  looked up.
+ *  @author Zhang Yusen
+ */
+class CommitGraph {
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x47434731;
+    /** Bytes in one record: id, two parents, generation and time. */
+    private static final int RECORD = UID_LENGTH / 2 + 4 + 4 + 4 + 8;
+    /** Position used for a missing parent. */
+    private static final int NONE = -1;
+
+    /** The file holding the graph. */
+    private final File file;
+    /** The store from which missing commits are read. */
+    private final ObjectStore objects;
+
+    /** Commit ids, by position. */
+    private final ArrayList<String> ids = new ArrayList<>();
+    /** Positions, by commit id. */
+    private final HashMap<String, Integer> positions = new HashMap<>();
+    /** First parents, second parents and generations, by position. */
+    private int[] parent1 = new int[16];
+    private int[] parent2 = new int[16];
+    private int[] generation = new int[16];
+    /** Commit times in milliseconds, by position. */
+    private long[] time = new long[16];
+    /** Number of records already in the file. */
+    private int saved;
+    /** True once the file has been read. */
+    private boolean loaded;
+
+    /** A commit graph stored in FILE, for the commits of OBJECTS. */
+    CommitGraph(File file, ObjectStore objects) {
+        this.file = file;
+        this.objects = objects;
+    }
+
+    /** Adds COMMIT, and any of its stored ancestors not yet known, to the
+     *  graph. */
+    void add(Commit commit) {
+        load();
+        if (!positions.containsKey(commit.getId())) {
+            position(commit.getParent());
+            position(commit.getSecondParent());
+            append(commit);
+        }
+    }
+
+    /** Returns true iff commit ANCESTOR is DESCENDANT or one of its
+     *  ancestors. */
+    boolean isAncestor(String ancestor, String descendant) {
+        int target = position(ancestor);
+        int start = position(descendant);
+        if (target == NONE || start == NONE) {
+            return false;
+        }
+        int minGeneration = generation[target];
+        boolean[] seen = new boolean[ids.size()];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(start);
+        seen[start] = true;
+        while (!queue.isEmpty()) {
+            int c = queue.remove();
+            if (c == target) {
+                return true;
+            }
+            for (int p : new int[] {parent1[c], parent2[c]}) {
+                if (p != NONE && !seen[p] && generation[p] >= minGeneration) {
+                    seen[p] = true;
+                    queue.add(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns the latest common ancestor of commits A and B, or null if
+     *  they have none.  Commits are visited in decreasing order of
+     *  generation, so the first commit reached from both sides is one that
+     *  no other common ancestor descends from. */
+    String mergeBase(String a, String b) {
+        int posA = position(a);
+        int posB = position(b);
+        if (posA == NONE || posB == NONE) {
+            return null;
+        }
+        byte[] flags = new byte[ids.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) ->
+                generation[x] != generation[y]
+                ? Integer.compare(generation[y], generation[x])
+                : Long.compare(time[y], time[x]));
+        flags[posA] |= 1;
+        flags[posB] |= 2;
+        queue.add(posA);
+        if (posB != posA) {
+            queue.add(posB);
+        }
+        while (!queue.isEmpty()) {
+            int c = queue.remove();
+            if (flags[c] == 3) {
+                return ids.get(c);
+            }
+            for (int p : new int[] {parent1[c], parent2[c]}) {
+                if (p != NONE && (flags[p] | flags[c]) != flags[p]) {
+                    if (flags[p] == 0) {
+                        queue.add(p);
+                    }
+                    flags[p] |= flags[c];
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns the ids of START and its ancestors, stopping at (and
+     *  excluding) every commit for which STOP is true, in breadth-first
+     *  order. */
+    List<String> ancestors(String start, Predicate<String> stop) {
+        List<String> result = new ArrayList<>();
+        int s = position(start);
+        if (s == NONE) {
+            return result;
+        }
+        boolean[] seen = new boolean[ids.size()];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(s);
+        seen[s] = true;
+        while (!queue.isEmpty()) {
+            int c = queue.remove();
+            if (stop.test(ids.get(c))) {
+                continue;
+            }
+            result.add(ids.get(c));
+            for (int p : new int[] {parent1[c], parent2[c]}) {
+                if (p != NONE && !seen[p]) {
+                    seen[p] = true;
+                    queue.add(p);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the ids of WANT and of its ancestors that are neither one
+     *  of HAVES nor an ancestor of one, in breadth-first order: the
+     *  commits a repository holding HAVES lacks to have WANT.  Haves that
+     *  are not in the graph are ignored. */
+    List<String> missing(String want, Collection<String> haves) {
+        List<String> result = new ArrayList<>();
+        int w = position(want);
+        List<Integer> havePositions = new ArrayList<>();
+        for (String have : haves) {
+            int h = position(have);
+            if (h != NONE) {
+                havePositions.add(h);
+            }
+        }
+        if (w == NONE) {
+            return result;
+        }
+        boolean[] seen = new boolean[ids.size()];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int h : havePositions) {
+            if (!seen[h]) {
+                seen[h] = true;
+                queue.add(h);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int c = queue.remove();
+            for (int p : new int[] {parent1[c], parent2[c]}) {
+                if (p != NONE && !seen[p]) {
+                    seen[p] = true;
+                    queue.add(p);
+                }
+            }
+        }
+        if (!seen[w]) {
+            seen[w] = true;
+            queue.add(w);
+        }
+        while (!queue.isEmpty()) {
+            int c = queue.remove();
+            result.add(ids.get(c));
+            for (int p : new int[] {parent1[c], parent2[c]}) {
+                if (p != NONE && !seen[p]) {
+                    seen[p] = true;
+                    queue.add(p);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Appends the records added since the last save to the file and
+     *  forces it to disk, before any ref can name the commits added. */
+    void save() {
+        if (saved == ids.size()) {
+            return;
+        }
+        boolean fresh = saved == 0 || !file.exists();
+        long start = Trace.start();
+        try (FileOutputStream stream = new FileOutputStream(file, !fresh);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            int from = saved;
+            if (fresh) {
+                out.writeInt(MAGIC);
+                from = 0;
+            }
+            for (int c = from; c < ids.size(); c += 1) {
+                out.write(uidToBytes(ids.get(c)));
+                out.writeInt(parent1[c]);
+                out.writeInt(parent2[c]);
+                out.writeInt(generation[c]);
+                out.writeLong(time[c]);
+            }
+            out.flush();
+            stream.getFD().sync();
+            Trace.record(Trace.Op.WRITE_CONTENTS, out.size(), start);
+        } catch (IOException excp) {
+            throw error("Cannot write commit graph: %s", excp.getMessage());
+        }
+        saved = ids.size();
+    }
+
+    /** Returns the position of commit ID, adding it and its ancestors to
+     *  the graph if needed, or NONE if it is not stored. */
+    private int position(String id) {
+        load();
+        if (id == null) {
+            return NONE;
+        }
+        Integer known = positions.get(id);
+        if (known != null) {
+            return known;
+        }
+        ArrayDeque<Commit> stack = new ArrayDeque<>();
+        Commit start = objects.readCommit(id);
+        if (start == null) {
+            return NONE;
+        }
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            Commit commit = stack.peek();
+            boolean ready = true;
+            for (String parent : new String[] {commit.getParent(), commit.getSecondParent()}) {
+                if (parent != null && !positions.containsKey(parent)) {
+                    Commit parentCommit = objects.readCommit(parent);
+                    if (parentCommit != null) {
+                        stack.push(parentCommit);
+                        ready = false;
+                    }
+                }
+            }
+            if (ready) {
+                stack.pop();
+                if (!positions.containsKey(commit.getId())) {
+                    append(commit);
+                }
+            }
+        }
+        return positions.get(id);
+    }
+
+    /** Adds a record for COMMIT, whose parents are already in the graph if
+     *  they are stored at all. */
+    private void append(Commit commit) {
+        int p1 = positionOrNone(commit.getParent());
+        int p2 = positionOrNone(commit.getSecondParent());
+        int gen = 1;
+        if (p1 != NONE) {
+            gen = Math.max(gen, generation[p1] + 1);
+        }
+        if (p2 != NONE) {
+            gen = Math.max(gen, generation[p2] + 1);
+        }
+        put(commit.getId(), p1, p2, gen, parseTime(commit.getTimeStamp()));
+    }
+
+    /** Adds a record with the given fields at the next position. */
+    private void put(String id, int p1, int p2, int gen, long millis) {
+        int c = ids.size();
+        if (c == parent1.length) {
+            parent1 = Arrays.copyOf(parent1, 2 * c);
+            parent2 = Arrays.copyOf(parent2, 2 * c);
+            generation = Arrays.copyOf(generation, 2 * c);
+            time = Arrays.copyOf(time, 2 * c);
+        }
+        ids.add(id);
+        positions.put(id, c);
+        parent1[c] = p1;
+        parent2[c] = p2;
+        generation[c] = gen;
+        time[c] = millis;
+    }
+
+    /** Returns the position of ID if it is already in the graph, else NONE. */
+    private int positionOrNone(String id) {
+        Integer known = id == null ? null : positions.get(id);
+        return known == null ? NONE : known;
+    }
+
+    /** Reads the file, if that has not been done yet.  A partly written
+     *  last record is ignored, and the whole file is rewritten by the next
+     *  save. */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.isFile()) {
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(readContents(file));
+        if (in.remaining() < 4 || in.getInt() != MAGIC) {
+            return;
+        }
+        byte[] id = new byte[UID_LENGTH / 2];
+        while (in.remaining() >= RECORD) {
+            in.get(id);
+            put(bytesToUid(id, 0), in.getInt(), in.getInt(), in.getInt(), in.getLong());
+        }
+        saved = in.hasRemaining() ? 0 : ids.size();
+    }
+
+    /** Returns the time in milliseconds of the commit timestamp STAMP. */
+    private static long parseTime(String stamp) {
+        try {
+            return new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z").parse(stamp).getTime();
+        } catch (ParseException excp) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static gitlet.Utils.*;
+
+/** A sorted index of the ids of every commit in a store, used to resolve
+ *  abbreviated commit ids without listing the commit directory.  The file
+ *  holds a 256-entry fan-out table and the sorted binary ids, like a pack
+ *  index, followed by a short unsorted tail of recently added ids.  New
+ *  commits are appended to the tail, and once it grows past MAX_TAIL the
+ *  whole file is rewritten in sorted order.
+ *  @author Zhang Yusen
+ */
+class CommitIndex {
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x47434931;
+    /** Size of the header: magic, count, and the fan-out table. */
+    private static final int HEADER = 8 + 256 * 4;
+    /** Length of a binary SHA-1 id. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    /** Number of unsorted ids tolerated before the file is rewritten. */
+    private static final int MAX_TAIL = 256;
+
+    /** The file holding the index. */
+    private final File file;
+    /** Supplies every commit id, to build the file when it is missing. */
+    private final Supplier<List<String>> allIds;
+    /** Contents of the file, read on first use. */
+    private ByteBuffer contents;
+    /** Number of sorted ids. */
+    private int count;
+    /** Number of ids in the tail. */
+    private int tail;
+
+    /** An index stored in FILE.  If FILE does not exist, it is built from
+     *  the ids returned by ALLIDS. */
+    CommitIndex(File file, Supplier<List<String>> allIds) {
+        this.file = file;
+        this.allIds = allIds;
+    }
+
+    /** Records that commit ID has been stored. */
+    void add(String id) {
+        addAll(List.of(id));
+    }
+
+    /** Records that the commits IDS have been stored, with one write. */
+    void addAll(List<String> ids) {
+        load();
+        List<String> added = new ArrayList<>();
+        for (String id : ids) {
+            if (matches(id).isEmpty()) {
+                added.add(id);
+            }
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+        if (tail + added.size() > MAX_TAIL) {
+            List<String> all = all();
+            all.addAll(added);
+            rewrite(all);
+            return;
+        }
+        long start = Trace.start();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            for (String id : added) {
+                out.write(uidToBytes(id));
+            }
+            Trace.record(Trace.Op.WRITE_CONTENTS, (long) added.size() * ID_BYTES, start);
+        } catch (IOException excp) {
+            throw error("Cannot write commit index: %s", excp.getMessage());
+        }
+        contents = null;
+    }
+
+    /** Returns the ids of all commits whose id starts with PREFIX, a string
+     *  of hex digits, in no particular order. */
+    List<String> matches(String prefix) {
+        load();
+        List<String> result = new ArrayList<>();
+        String lower = prefix.toLowerCase();
+        if (lower.length() > UID_LENGTH || !lower.matches("[0-9a-f]*")) {
+            return result;
+        }
+        byte[] low = uidToBytes(pad(lower, '0'));
+        byte[] high = uidToBytes(pad(lower, 'f'));
+        int first = low[0] & 0xff;
+        int lo = first == 0 ? 0 : contents.getInt(8 + (first - 1) * 4);
+        int hi = contents.getInt(8 + (high[0] & 0xff) * 4);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(HEADER + mid * ID_BYTES, low) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < count && compareAt(HEADER + i * ID_BYTES, high) <= 0; i += 1) {
+            result.add(idAt(HEADER + i * ID_BYTES));
+        }
+        for (int i = 0; i < tail; i += 1) {
+            int offset = HEADER + (count + i) * ID_BYTES;
+            if (compareAt(offset, low) >= 0 && compareAt(offset, high) <= 0) {
+                result.add(idAt(offset));
+            }
+        }
+        return result;
+    }
+
+    /** Returns every id in this index. */
+    private List<String> all() {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < count + tail; i += 1) {
+            result.add(idAt(HEADER + i * ID_BYTES));
+        }
+        return result;
+    }
+
+    /** Reads the file, building it first if it does not exist. */
+    private void load() {
+        if (contents != null) {
+            return;
+        }
+        if (!file.isFile()) {
+            rewrite(allIds.get());
+        }
+        contents = ByteBuffer.wrap(readContents(file));
+        if (contents.capacity() < HEADER || contents.getInt(0) != MAGIC) {
+            rewrite(allIds.get());
+            contents = ByteBuffer.wrap(readContents(file));
+        }
+        count = contents.getInt(4);
+        tail = (contents.capacity() - HEADER) / ID_BYTES - count;
+    }
+
+    /** Replaces the file with a sorted index of IDS. */
+    private void rewrite(List<String> ids) {
+        String[] sorted = ids.toArray(new String[0]);
+        Arrays.sort(sorted);
+        int[] fanout = new int[256];
+        for (String id : sorted) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        long start = Trace.start();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(sorted.length);
+            int total = 0;
+            for (int b = 0; b < 256; b += 1) {
+                total += fanout[b];
+                out.writeInt(total);
+            }
+            for (String id : sorted) {
+                out.write(uidToBytes(id));
+            }
+            out.flush();
+            Trace.record(Trace.Op.WRITE_CONTENTS, out.size(), start);
+        } catch (IOException excp) {
+            throw error("Cannot write commit index: %s", excp.getMessage());
+        }
+        if (!temp.renameTo(file)) {
+            throw error("Cannot write commit index.");
+        }
+        contents = null;
+    }
+
+    /** Compares the id at OFFSET in the file with KEY. */
+    private int compareAt(int offset, byte[] key) {
+        for (int k = 0; k < ID_BYTES; k += 1) {
+            int cmp = Integer.compare(contents.get(offset + k) & 0xff, key[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the hex id at OFFSET in the file. */
+    private String idAt(int offset) {
+        byte[] id = new byte[ID_BYTES];
+        contents.get(offset, id);
+        return bytesToUid(id, 0);
+    }
+
+    /** Returns PREFIX extended with copies of FILL to a full id. */
+    private static String pad(String prefix, char fill) {
+        StringBuilder result = new StringBuilder(prefix);
+        while (result.length() < UID_LENGTH) {
+            result.append(fill);
+        }
+        return result.toString();
+    }
+}
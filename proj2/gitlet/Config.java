@@ -0,0 +1,66 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import static gitlet.Utils.*;
+
+/** The settings of one repository, kept as key=value lines in
+ *  .gitlet/config.  Missing keys take their default values.
+ *  @author Zhang Yusen
+ */
+class Config {
+
+    /** Key naming the codec used to compress new objects. */
+    static final String COMPRESSION = "core.compression";
+    /** Key naming the remote from which a partial clone fetches the blobs
+     *  it was fetched without. */
+    static final String PARTIAL_CLONE = "extensions.partialclone";
+
+    /** The file holding the settings. */
+    private final File file;
+    /** The settings, read when this object is created. */
+    private final Properties properties = new Properties();
+
+    /** The settings stored in FILE, which need not exist. */
+    Config(File file) {
+        this.file = file;
+        if (file.isFile()) {
+            long start = Trace.start();
+            try (InputStream in = new FileInputStream(file)) {
+                properties.load(in);
+                Trace.record(Trace.Op.READ_CONTENTS, file.length(), start);
+            } catch (IOException excp) {
+                throw error("Cannot read config: %s", excp.getMessage());
+            }
+        }
+    }
+
+    /** Returns the value of KEY, or DEFAULTVALUE if it is not set. */
+    String get(String key, String defaultValue) {
+        return properties.getProperty(key, defaultValue);
+    }
+
+    /** Sets KEY to VALUE and writes the settings back to their file. */
+    void set(String key, String value) {
+        properties.setProperty(key, value);
+        long start = Trace.start();
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, null);
+            Trace.record(Trace.Op.WRITE_CONTENTS, file.length(), start);
+        } catch (IOException excp) {
+            throw error("Cannot write config: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the codec this repository compresses new objects with. */
+    Codec codec() {
+        Codec codec = Codec.forName(get(COMPRESSION, Codec.NONE.name()));
+        return codec == null ? Codec.NONE : codec;
+    }
+}
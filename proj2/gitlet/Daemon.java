@@ -0,0 +1,157 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static gitlet.Utils.*;
+
+/** A long-running server that executes gitlet commands for Client, so
+ *  that scripts issuing many commands pay for JVM startup and class
+ *  loading once.  It listens on the Unix-domain socket .gitlet/daemon.sock
+ *  and keeps one Repository, with its stat index, commit graph and object
+ *  caches, warm between commands.
+ *
+ *  A request is the number of arguments followed by each argument as a
+ *  UTF string; the reply is the length and bytes of the command's output
+ *  followed by an exit status.  Requests are served one at a time.  If the
+ *  repository's files were changed by something other than the daemon
+ *  since its last command, or its config changed at all since the warm
+ *  Repository was loaded, that Repository is dropped and reloaded, since
+ *  the config is read only on loading.
+ *
+ *  The script gitlet-client beside the gitlet directory speaks the same
+ *  protocol through nc or socat, without starting a JVM; Client starts
+ *  one and so saves only gitlet's own loading.
+ *  @author Zhang Yusen
+ */
+class Daemon {
+
+    /** The socket the daemon listens on. */
+    static final File SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+
+    /** Serves commands until asked to stop with "daemon stop". */
+    static void serve() {
+        if (!Repository.GITLET_DIR.isDirectory()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        if (SOCKET.exists()) {
+            try {
+                SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath())).close();
+                System.out.println("A gitlet daemon is already running.");
+                return;
+            } catch (IOException excp) {
+                SOCKET.delete();
+            }
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            Runtime.getRuntime().addShutdownHook(new Thread(SOCKET::delete));
+            System.out.println("Gitlet daemon listening on " + SOCKET);
+            Repository repo = new Repository();
+            String seen = fingerprint();
+            String config = config();
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+                    String[] args = new String[in.readInt()];
+                    for (int i = 0; i < args.length; i += 1) {
+                        args[i] = in.readUTF();
+                    }
+                    if (!fingerprint().equals(seen) || !config().equals(config)) {
+                        repo = new Repository();
+                        config = config();
+                    }
+                    ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    int status = 0;
+                    if (Arrays.equals(args, new String[] {"daemon", "stop"})) {
+                        output.writeBytes("Daemon stopped.\n".getBytes(StandardCharsets.UTF_8));
+                        running = false;
+                    } else if (args.length > 0 && args[0].equals("daemon")) {
+                        output.writeBytes("A gitlet daemon is already running.\n"
+                                          .getBytes(StandardCharsets.UTF_8));
+                    } else {
+                        status = execute(args, repo, output);
+                        if (status != 0) {
+                            repo = new Repository();
+                        }
+                    }
+                    seen = fingerprint();
+                    DataOutputStream out = new DataOutputStream(Channels.newOutputStream(client));
+                    out.writeInt(output.size());
+                    output.writeTo(out);
+                    out.writeInt(status);
+                    out.flush();
+                } catch (IOException excp) {
+                    continue;
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot run daemon: %s", excp.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /** Runs the command ARGS on REPO, capturing its standard output in
+     *  OUTPUT, and returns its exit status: 0 unless it failed with an
+     *  unexpected exception. */
+    private static int execute(String[] args, Repository repo, ByteArrayOutputStream output) {
+        PrintStream stdout = System.out;
+        PrintStream capture = new PrintStream(output, true, StandardCharsets.UTF_8);
+        System.setOut(capture);
+        try {
+            Main.run(args, repo);
+            return 0;
+        } catch (RuntimeException excp) {
+            capture.println(excp);
+            return 1;
+        } finally {
+            capture.flush();
+            System.setOut(stdout);
+        }
+    }
+
+    /** Returns a summary of the names, sizes and modification times of the
+     *  repository's metadata files and packs, which changes whenever one
+     *  of them is written. */
+    private static String fingerprint() {
+        StringBuilder result = new StringBuilder();
+        for (File dir : new File[] {Repository.GITLET_DIR, Repository.PACK_DIR}) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isFile()) {
+                    result.append(stamp(file));
+                }
+            }
+        }
+        return result.toString();
+    }
+
+    /** Returns the contents of the repository's config, which is small
+     *  enough to compare whole. */
+    private static String config() {
+        return Repository.CONFIG.isFile() ? readContentsAsString(Repository.CONFIG) : "";
+    }
+
+    /** Returns the name, size and modification time of FILE. */
+    private static String stamp(File file) {
+        return file.getName() + ' ' + file.length() + ' ' + file.lastModified() + '\n';
+    }
+}
@@ -0,0 +1,136 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Binary deltas between two versions of a blob.  A delta starts with the
+ *  lengths of the base and of the result, followed by a sequence of
+ *  instructions: COPY (offset, length) copies bytes from the base, and
+ *  INSERT (length, bytes) adds literal bytes.  Matches are found by
+ *  indexing every BLOCK-aligned block of the base and extending each hit
+ *  in both directions, in the manner of git's diff-delta.
+ *  @author Zhang Yusen
+ */
+class Delta {
+
+    /** Size of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+    /** Instruction code for inserted bytes. */
+    private static final int INSERT = 0;
+    /** Instruction code for bytes copied from the base. */
+    private static final int COPY = 1;
+
+    /** Returns a delta that turns BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        HashMap<Integer, Integer> index = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            index.putIfAbsent(hash(base, i), i);
+        }
+
+        int literalStart = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            Integer candidate = index.get(hash(target, i));
+            if (candidate == null || !Arrays.equals(base, candidate, candidate + BLOCK,
+                                                    target, i, i + BLOCK)) {
+                i += 1;
+                continue;
+            }
+            int s = candidate;
+            int t = i;
+            while (t > literalStart && s > 0 && base[s - 1] == target[t - 1]) {
+                s -= 1;
+                t -= 1;
+            }
+            int length = i - t + BLOCK;
+            while (t + length < target.length && s + length < base.length
+                   && base[s + length] == target[t + length]) {
+                length += 1;
+            }
+            writeInsert(out, target, literalStart, t);
+            out.write(COPY);
+            writeVarint(out, s);
+            writeVarint(out, length);
+            i = t + length;
+            literalStart = i;
+        }
+        writeInsert(out, target, literalStart, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        int baseLength = readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw Utils.error("Delta does not match its base.");
+        }
+        byte[] result = new byte[readVarint(delta, pos)];
+        int r = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]];
+            pos[0] += 1;
+            if (op == COPY) {
+                int offset = readVarint(delta, pos);
+                int length = readVarint(delta, pos);
+                System.arraycopy(base, offset, result, r, length);
+                r += length;
+            } else {
+                int length = readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, r, length);
+                pos[0] += length;
+                r += length;
+            }
+        }
+        return result;
+    }
+
+    /** Writes an INSERT of TARGET[START..END) to OUT, if it is non-empty. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target,
+                                    int start, int end) {
+        if (end > start) {
+            out.write(INSERT);
+            writeVarint(out, end - start);
+            out.write(target, start, end - start);
+        }
+    }
+
+    /** Returns a hash of the BLOCK bytes of DATA starting at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = start; k < start + BLOCK; k += 1) {
+            h = 31 * h + data[k];
+        }
+        return h;
+    }
+
+    /** Writes the non-negative VALUE to OUT, seven bits at a time. */
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Reads a value written by writeVarint from DATA at POS[0], advancing
+     *  POS[0] past it. */
+    static int readVarint(byte[] data, int[] pos) {
+        int result = 0;
+        int shift = 0;
+        while (true) {
+            int b = data[pos[0]] & 0xff;
+            pos[0] += 1;
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+}
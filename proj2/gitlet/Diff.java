@@ -0,0 +1,383 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Line-level differences between two texts, found with Myers' O(ND)
+ *  algorithm in its linear-space, divide-and-conquer form.  Lines are
+ *  first replaced by small integers, equal lines getting equal numbers,
+ *  so that the inner loops compare ints rather than strings.  Lines of
+ *  either text that occur nowhere in the other can never be matched, so
+ *  they are set aside before the search, which keeps it fast on texts
+ *  that have little in common.
+ *
+ *  In patience mode, lines that occur exactly once in each text are
+ *  matched first, as the longest sequence of them in the same order in
+ *  both, and only the stretches between them are searched; this gives
+ *  diffs that follow the structure of source files more closely, at the
+ *  cost of sometimes not being the shortest.
+ *  @author Zhang Yusen
+ */
+class Diff {
+
+    /** Number of unchanged lines shown around each change by
+     *  printUnified. */
+    static final int CONTEXT = 3;
+
+    /** A change replacing lines [aStart, aEnd) of the old text by lines
+     *  [bStart, bEnd) of the new one.  Either range may be empty. */
+    static class Edit {
+        final int aStart;
+        final int aEnd;
+        final int bStart;
+        final int bEnd;
+
+        Edit(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d,%d -> %d,%d", aStart, aEnd, bStart, bEnd);
+        }
+    }
+
+    /** The sequences being compared. */
+    private final int[] a;
+    private final int[] b;
+    /** Whether each element of A (resp. B) is deleted (resp. inserted). */
+    private final boolean[] aChanged;
+    private final boolean[] bChanged;
+    /** Furthest-reaching forward and backward paths, by diagonal. */
+    private final int[] forward;
+    private final int[] backward;
+
+    /** A comparison of sequences A and B. */
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        this.aChanged = new boolean[a.length];
+        this.bChanged = new boolean[b.length];
+        int size = 2 * ((a.length + b.length + 1) / 2) + 3;
+        this.forward = new int[size];
+        this.backward = new int[size];
+    }
+
+    /** Returns the lines of TEXT, each with its terminating newline, if
+     *  any. */
+    static List<String> lines(String text) {
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            result.add(text.substring(start, end));
+            start = end;
+        }
+        return result;
+    }
+
+    /** Returns LINES as numbers from IDS, adding any lines not yet in it.
+     *  Lines numbered from the same IDS are equal iff their numbers are. */
+    static int[] ids(List<String> lines, HashMap<String, Integer> ids) {
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            Integer id = ids.putIfAbsent(lines.get(i), ids.size());
+            result[i] = id == null ? ids.size() - 1 : id;
+        }
+        return result;
+    }
+
+    /** Returns a shortest list of edits turning A into B, in order. */
+    static List<Edit> diff(int[] a, int[] b) {
+        return diff(a, b, false);
+    }
+
+    /** Returns a list of edits turning A into B, in order, found in
+     *  patience mode iff PATIENCE. */
+    static List<Edit> diff(int[] a, int[] b, boolean patience) {
+        int[] aKept = matchable(a, b);
+        int[] bKept = matchable(b, a);
+        Diff diff = new Diff(select(a, aKept), select(b, bKept));
+        if (patience) {
+            diff.patience(0, aKept.length, 0, bKept.length);
+        } else {
+            diff.compare(0, aKept.length, 0, bKept.length);
+        }
+        boolean[] aChanged = new boolean[a.length];
+        boolean[] bChanged = new boolean[b.length];
+        Arrays.fill(aChanged, true);
+        Arrays.fill(bChanged, true);
+        for (int i = 0; i < aKept.length; i += 1) {
+            aChanged[aKept[i]] = diff.aChanged[i];
+        }
+        for (int j = 0; j < bKept.length; j += 1) {
+            bChanged[bKept[j]] = diff.bChanged[j];
+        }
+        return edits(aChanged, bChanged);
+    }
+
+    /** Prints EDITS, which turn lines A into lines B, as the hunks of a
+     *  unified diff with CONTEXT lines of context. */
+    static void printUnified(List<String> a, List<String> b, List<Edit> edits) {
+        int first = 0;
+        while (first < edits.size()) {
+            int last = first;
+            while (last + 1 < edits.size()
+                   && edits.get(last + 1).aStart - edits.get(last).aEnd <= 2 * CONTEXT) {
+                last += 1;
+            }
+            int aFrom = Math.max(0, edits.get(first).aStart - CONTEXT);
+            int bFrom = Math.max(0, edits.get(first).bStart - CONTEXT);
+            int aTo = Math.min(a.size(), edits.get(last).aEnd + CONTEXT);
+            int bTo = Math.min(b.size(), edits.get(last).bEnd + CONTEXT);
+            System.out.println("@@ -" + range(aFrom, aTo) + " +" + range(bFrom, bTo) + " @@");
+            int i = aFrom;
+            for (int k = first; k <= last; k += 1) {
+                Edit edit = edits.get(k);
+                printLines(" ", a, i, edit.aStart);
+                printLines("-", a, edit.aStart, edit.aEnd);
+                printLines("+", b, edit.bStart, edit.bEnd);
+                i = edit.aEnd;
+            }
+            printLines(" ", a, i, aTo);
+            first = last + 1;
+        }
+    }
+
+    /** Returns the hunk header range of lines [FROM, TO). */
+    private static String range(int from, int to) {
+        return (to == from ? from : from + 1) + "," + (to - from);
+    }
+
+    /** Prints lines [FROM, TO) of LINES, each preceded by PREFIX. */
+    private static void printLines(String prefix, List<String> lines, int from, int to) {
+        for (int k = from; k < to; k += 1) {
+            String line = lines.get(k);
+            if (line.endsWith("\n")) {
+                System.out.print(prefix + line);
+            } else {
+                System.out.println(prefix + line);
+                System.out.println("\\ No newline at end of file");
+            }
+        }
+    }
+
+    /** Returns the edits described by the changed flags ACHANGED and
+     *  BCHANGED, whose unchanged elements correspond in order. */
+    private static List<Edit> edits(boolean[] aChanged, boolean[] bChanged) {
+        List<Edit> result = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < aChanged.length || j < bChanged.length) {
+            if (i < aChanged.length && j < bChanged.length
+                && !aChanged[i] && !bChanged[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int aStart = i;
+            int bStart = j;
+            while (i < aChanged.length && aChanged[i]) {
+                i += 1;
+            }
+            while (j < bChanged.length && bChanged[j]) {
+                j += 1;
+            }
+            result.add(new Edit(aStart, i, bStart, j));
+        }
+        return result;
+    }
+
+    /** Returns the positions of the elements of X that occur in Y. */
+    private static int[] matchable(int[] x, int[] y) {
+        int max = 0;
+        for (int id : y) {
+            max = Math.max(max, id + 1);
+        }
+        boolean[] inY = new boolean[max];
+        for (int id : y) {
+            inY[id] = true;
+        }
+        int n = 0;
+        int[] result = new int[x.length];
+        for (int i = 0; i < x.length; i += 1) {
+            if (x[i] < max && inY[x[i]]) {
+                result[n] = i;
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Returns the elements of X at POSITIONS. */
+    private static int[] select(int[] x, int[] positions) {
+        int[] result = new int[positions.length];
+        for (int i = 0; i < positions.length; i += 1) {
+            result[i] = x[positions[i]];
+        }
+        return result;
+    }
+
+    /** Marks the elements of A[ALO..AHI) and B[BLO..BHI) that are not in
+     *  a longest common subsequence of the two as changed. */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi) {
+            Arrays.fill(bChanged, bLo, bHi, true);
+        } else if (bLo == bHi) {
+            Arrays.fill(aChanged, aLo, aHi, true);
+        } else {
+            int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+            compare(aLo, snake[0], bLo, snake[1]);
+            compare(snake[2], aHi, snake[3], bHi);
+        }
+    }
+
+    /** Marks the elements of A[ALO..AHI) and B[BLO..BHI) outside a common
+     *  subsequence as changed, matching elements unique to both ranges
+     *  first and comparing the stretches between them. */
+    private void patience(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        int[] anchors = uniqueCommon(aLo, aHi, bLo, bHi);
+        if (anchors.length == 0) {
+            compare(aLo, aHi, bLo, bHi);
+            return;
+        }
+        for (int i = 0; i < anchors.length; i += 2) {
+            patience(aLo, anchors[i], bLo, anchors[i + 1]);
+            aLo = anchors[i] + 1;
+            bLo = anchors[i + 1] + 1;
+        }
+        patience(aLo, aHi, bLo, bHi);
+    }
+
+    /** Returns the positions {I0, J0, I1, J1, ...} of a longest sequence of
+     *  elements that occur once in each of A[ALO..AHI) and B[BLO..BHI), in
+     *  the same order in both. */
+    private int[] uniqueCommon(int aLo, int aHi, int bLo, int bHi) {
+        HashMap<Integer, int[]> seen = new HashMap<>();
+        for (int i = aLo; i < aHi; i += 1) {
+            int[] entry = seen.computeIfAbsent(a[i], id -> new int[] {0, 0, 0, 0});
+            entry[0] += 1;
+            entry[1] = i;
+        }
+        for (int j = bLo; j < bHi; j += 1) {
+            int[] entry = seen.get(b[j]);
+            if (entry != null) {
+                entry[2] += 1;
+                entry[3] = j;
+            }
+        }
+        List<int[]> pairs = new ArrayList<>();
+        for (int[] entry : seen.values()) {
+            if (entry[0] == 1 && entry[2] == 1) {
+                pairs.add(new int[] {entry[1], entry[3]});
+            }
+        }
+        pairs.sort((p, q) -> Integer.compare(p[0], q[0]));
+
+        int[] tails = new int[pairs.size()];
+        int[] previous = new int[pairs.size()];
+        int length = 0;
+        for (int k = 0; k < pairs.size(); k += 1) {
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (pairs.get(tails[mid])[1] < pairs.get(k)[1]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[k] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = k;
+            length = Math.max(length, lo + 1);
+        }
+        int[] result = new int[2 * length];
+        for (int k = length == 0 ? -1 : tails[length - 1], n = length - 1; k >= 0;
+             k = previous[k], n -= 1) {
+            result[2 * n] = pairs.get(k)[0];
+            result[2 * n + 1] = pairs.get(k)[1];
+        }
+        return result;
+    }
+
+    /** Returns the start and end points {X0, Y0, X1, Y1} of a snake, a
+     *  run of matching elements, in the middle of a shortest edit path
+     *  from A[ALO..AHI) to B[BLO..BHI), which neither start nor end with
+     *  matching elements. */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        int offset = max + 1;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) {
+                    x = forward[offset + k + 1];
+                } else {
+                    x = forward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                int c = delta - k;
+                if (odd && c >= -(d - 1) && c <= d - 1 && x + backward[offset + c] >= n) {
+                    return new int[] {aLo + x0, bLo + y0, aLo + x, bLo + y};
+                }
+            }
+            for (int c = -d; c <= d; c += 2) {
+                int x;
+                if (c == -d || (c != d && backward[offset + c - 1] < backward[offset + c + 1])) {
+                    x = backward[offset + c + 1];
+                } else {
+                    x = backward[offset + c - 1] + 1;
+                }
+                int y = x - c;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + c] = x;
+                int k = delta - c;
+                if (!odd && k >= -d && k <= d && x + forward[offset + k] >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - x0, bHi - y0};
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+}
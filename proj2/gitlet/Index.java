@@ -0,0 +1,186 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Utils.*;
+
+/** A cache of the stat data of working files, in the spirit of git's
+ *  index.  For each path it remembers the size, modification time and
+ *  file key (inode) seen when the file was last hashed, together with
+ *  the resulting blob id, so that a file whose stat data is unchanged
+ *  need not be read and hashed again.
+ *  @author Zhang Yusen
+ */
+class Index {
+
+    /** Magic number at the start of the index file. */
+    private static final int MAGIC = 0x47494e31;
+    /** Files modified this close (in ms) to the time they were recorded
+     *  may have changed again within the file system's timestamp
+     *  granularity, so their entries are not trusted. */
+    private static final long RACY_MILLIS = 2000;
+
+    /** The file this index is stored in. */
+    private final File file;
+    /** Entries by working-tree path.  Concurrent, so that files can be
+     *  hashed in parallel. */
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    /** Paths whose entries differ from what is stored in FILE. */
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
+
+    /** An index stored in FILE, which need not exist yet. */
+    Index(File file) {
+        this.file = file;
+        if (!file.isFile()) {
+            return;
+        }
+        long start = Trace.start();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            int n = in.readInt();
+            for (int i = 0; i < n; i += 1) {
+                String path = in.readUTF();
+                entries.put(path, new Entry(in.readLong(), in.readLong(),
+                        in.readUTF(), in.readUTF(), in.readLong()));
+            }
+            Trace.record(Trace.Op.READ_CONTENTS, file.length(), start);
+        } catch (EOFException excp) {
+            entries.clear();
+        } catch (IOException excp) {
+            throw error("Cannot read index: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the blob id of WORKINGFILE, the working copy of PATH, or null
+     *  if it does not exist.  Hashes the file only if its stat data differs
+     *  from the recorded entry. */
+    String blobId(File workingFile, String path) {
+        BasicFileAttributes attrs = stat(workingFile);
+        if (attrs == null || !attrs.isRegularFile()) {
+            return null;
+        }
+        Entry entry = entries.get(path);
+        if (entry != null && entry.matches(attrs)) {
+            return entry.blobId;
+        }
+        String blobId = sha1(workingFile);
+        put(path, attrs, blobId);
+        return blobId;
+    }
+
+    /** Records that WORKINGFILE, the working copy of PATH, has just been
+     *  written with the contents of blob BLOBID. */
+    void record(File workingFile, String path, String blobId) {
+        BasicFileAttributes attrs = stat(workingFile);
+        if (attrs != null) {
+            put(path, attrs, blobId);
+        }
+    }
+
+    /** Forgets PATH. */
+    void remove(String path) {
+        if (entries.remove(path) != null) {
+            changed.add(path);
+        }
+    }
+
+    /** Returns the paths recorded or forgotten since this index was last
+     *  read or saved. */
+    Set<String> changedPaths() {
+        return new HashSet<>(changed);
+    }
+
+    /** Writes this index back to its file if it has changed. */
+    void save() {
+        if (changed.isEmpty()) {
+            return;
+        }
+        long start = Trace.start();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeUTF(entry.fileKey);
+                out.writeUTF(entry.blobId);
+                out.writeLong(entry.recorded);
+            }
+            out.flush();
+            Trace.record(Trace.Op.WRITE_CONTENTS, out.size(), start);
+        } catch (IOException excp) {
+            throw error("Cannot write index: %s", excp.getMessage());
+        }
+        changed.clear();
+    }
+
+    /** Records ATTRS and BLOBID for PATH. */
+    private void put(String path, BasicFileAttributes attrs, String blobId) {
+        entries.put(path, new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(),
+                String.valueOf(attrs.fileKey()), blobId, System.currentTimeMillis()));
+        changed.add(path);
+    }
+
+    /** Returns the attributes of FILE, or null if it does not exist. */
+    private static BasicFileAttributes stat(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw error("Cannot stat %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** The recorded state of one working file. */
+    private static class Entry {
+        /** Size in bytes. */
+        final long size;
+        /** Modification time in milliseconds. */
+        final long mtime;
+        /** The file system's key for the file, typically its inode. */
+        final String fileKey;
+        /** Id of the blob with the file's contents. */
+        final String blobId;
+        /** Time at which this entry was recorded. */
+        final long recorded;
+
+        Entry(long size, long mtime, String fileKey, String blobId, long recorded) {
+            this.size = size;
+            this.mtime = mtime;
+            this.fileKey = fileKey;
+            this.blobId = blobId;
+            this.recorded = recorded;
+        }
+
+        /** Returns true iff ATTRS show the file unchanged since this entry
+         *  was recorded. */
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size()
+                && mtime == attrs.lastModifiedTime().toMillis()
+                && fileKey.equals(String.valueOf(attrs.fileKey()))
+                && mtime + RACY_MILLIS < recorded;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** A write-ahead journal that makes a batch of updates to the small
+ *  metadata files of a .gitlet directory (HEAD, branches, the staging and
+ *  removal areas) atomic and durable.  First the objects the store has
+ *  written are synced, as one pack, so that no file can name an object
+ *  that a crash loses.  Then the new contents of every file in the batch
+ *  are written to one journal file, which is forced to disk once and
+ *  renamed into place; only after that are the files themselves
+ *  overwritten and forced, and finally the journal is deleted.  A crash
+ *  before the rename leaves every file as it was, and a crash after it is
+ *  repaired by recover, which replays the journal, so HEAD and the branch
+ *  it names can never disagree, and a file left half-written is whole
+ *  again without a temporary copy of its own.
+ *  @author Zhang Yusen
+ */
+class Journal {
+
+    /** Magic number at the start of a journal. */
+    private static final int MAGIC = 0x474a4e31;
+    /** Name of the journal in the .gitlet directory. */
+    private static final String NAME = "journal";
+
+    /** The .gitlet directory whose files are updated. */
+    private final File gitletDir;
+    /** The store of that directory, whose objects are forced first. */
+    private final ObjectStore objects;
+    /** The new contents of each file, in the order they were given. */
+    private final LinkedHashMap<File, byte[]> updates = new LinkedHashMap<>();
+
+    /** A batch of updates to files in the .gitlet directory GITLETDIR,
+     *  whose objects are in OBJECTS. */
+    Journal(File gitletDir, ObjectStore objects) {
+        this.gitletDir = gitletDir;
+        this.objects = objects;
+    }
+
+    /** Adds to this batch the replacement of FILE's contents by the
+     *  concatenation of CONTENTS, byte arrays and Strings, as for
+     *  Utils.writeContents. */
+    Journal write(File file, Object... contents) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Object obj : contents) {
+            if (obj instanceof byte[]) {
+                bytes.writeBytes((byte[]) obj);
+            } else {
+                bytes.writeBytes(((String) obj).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        updates.put(file, bytes.toByteArray());
+        return this;
+    }
+
+    /** Adds to this batch the replacement of FILE's contents by the
+     *  serialized form of OBJ, as for Utils.writeObject. */
+    Journal writeObject(File file, Serializable obj) {
+        return write(file, serialize(obj));
+    }
+
+    /** Makes every update in this batch, atomically.  A batch of one file
+     *  needs no journal: the file is replaced by renaming a forced copy,
+     *  written where recover discards it if a crash comes first. */
+    void commit() {
+        if (updates.isEmpty()) {
+            return;
+        }
+        objects.sync();
+        if (updates.size() == 1) {
+            Map.Entry<File, byte[]> update = updates.entrySet().iterator().next();
+            File parent = update.getKey().getParentFile();
+            if (!parent.isDirectory()) {
+                parent.mkdirs();
+                sync(parent.getParentFile());
+            }
+            replace(join(gitletDir, NAME + ".tmp"), update.getKey(), update.getValue());
+            sync(parent);
+            updates.clear();
+            return;
+        }
+        File journal = join(gitletDir, NAME);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(updates.size());
+            for (Map.Entry<File, byte[]> update : updates.entrySet()) {
+                out.writeUTF(gitletDir.toPath().relativize(update.getKey().toPath()).toString());
+                out.writeInt(update.getValue().length);
+                out.write(update.getValue());
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write journal: %s", excp.getMessage());
+        }
+        replace(join(gitletDir, NAME + ".tmp"), journal, bytes.toByteArray());
+        sync(gitletDir);
+        apply(gitletDir, updates);
+        journal.delete();
+        updates.clear();
+    }
+
+    /** Returns true iff GITLETDIR holds a batch of updates whose journal
+     *  was written but which recover has not yet finished. */
+    static boolean pending(File gitletDir) {
+        return join(gitletDir, NAME).isFile();
+    }
+
+    /** Finishes any batch of updates to the files in GITLETDIR that was
+     *  interrupted after its journal was written, and discards any that
+     *  was interrupted before. */
+    static void recover(File gitletDir) {
+        join(gitletDir, NAME + ".tmp").delete();
+        File journal = join(gitletDir, NAME);
+        if (!journal.isFile()) {
+            return;
+        }
+        LinkedHashMap<File, byte[]> updates = new LinkedHashMap<>();
+        long start = Trace.start();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(journal)))) {
+            if (in.readInt() == MAGIC) {
+                int n = in.readInt();
+                for (int i = 0; i < n; i += 1) {
+                    File file = join(gitletDir, in.readUTF());
+                    byte[] contents = new byte[in.readInt()];
+                    in.readFully(contents);
+                    updates.put(file, contents);
+                }
+                Trace.record(Trace.Op.READ_CONTENTS, journal.length(), start);
+                apply(gitletDir, updates);
+            }
+        } catch (EOFException excp) {
+            updates.clear();
+        } catch (IOException excp) {
+            throw error("Cannot read journal: %s", excp.getMessage());
+        }
+        journal.delete();
+    }
+
+    /** Overwrites the files in UPDATES with their new contents, forcing
+     *  each to disk, and forces the directories in which any were created. */
+    private static void apply(File gitletDir, Map<File, byte[]> updates) {
+        Set<File> dirs = new LinkedHashSet<>();
+        for (Map.Entry<File, byte[]> update : updates.entrySet()) {
+            File file = update.getKey();
+            File parent = file.getParentFile();
+            if (!parent.isDirectory()) {
+                parent.mkdirs();
+                dirs.add(parent.getParentFile());
+            }
+            if (!file.exists()) {
+                dirs.add(parent);
+            }
+            force(file, update.getValue());
+        }
+        for (File dir : dirs) {
+            sync(dir);
+        }
+    }
+
+    /** Replaces FILE by CONTENTS, written to TEMP, forced to disk and
+     *  renamed over FILE. */
+    private static void replace(File temp, File file, byte[] contents) {
+        force(temp, contents);
+        if (!temp.renameTo(file)) {
+            throw error("Cannot write %s.", file.getName());
+        }
+    }
+
+    /** Writes CONTENTS to FILE and forces them to disk. */
+    private static void force(File file, byte[] contents) {
+        long start = Trace.start();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(contents);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException excp) {
+            throw error("Cannot write %s: %s", file.getName(), excp.getMessage());
+        }
+        Trace.record(Trace.Op.WRITE_CONTENTS, contents.length, start);
+    }
+}
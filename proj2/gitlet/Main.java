@@ -1,6 +1,9 @@
 package gitlet;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import static gitlet.Utils.join;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
@@ -15,12 +18,43 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        if (args.length == 1 && args[0].equals("daemon")) {
+            Daemon.serve();
+            return;
+        }
+        run(args, new Repository());
+    }
+
+    /** Runs the command ARGS on REPO, printing the message of any
+     *  GitletException rather than exiting, so that a daemon can run
+     *  many commands in one JVM.  If ARGS starts with --trace, or
+     *  --trace=json, the command's I/O is counted by Trace and a report,
+     *  as a table or as one line of JSON, is printed after its output. */
+    static void run(String[] args, Repository repo) {
+        String trace = null;
+        if (args.length > 0 && (args[0].equals("--trace") || args[0].equals("--trace=json"))) {
+            trace = args[0];
+            args = Arrays.copyOfRange(args, 1, args.length);
+            Trace.begin(args.length > 0 ? args[0] : "");
+        }
+        try {
+            dispatch(args, repo);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } finally {
+            if (trace != null) {
+                System.out.print(Trace.end(trace.equals("--trace=json")));
+            }
+        }
+    }
+
+    /** Runs the command ARGS on REPO. */
+    private static void dispatch(String[] args, Repository repo) {
         if (args.length == 0) {
             System.out.println("Please enter a command.");
             return;
         }
 
-        Repository repo = new Repository();
         String firstArg = args[0];
 
         if (firstArg.equals("init")) {
@@ -30,13 +64,15 @@ public class Main {
 
         if (!GITLET_DIR.exists()) {
             System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            return;
         }
 
         switch(firstArg) {
             case "add":
-                validateNumArgs(args, 2);
-                repo.add(args[1]);
+                if (args.length < 2) {
+                    throw Utils.error("Incorrect operands.");
+                }
+                repo.add(Arrays.asList(args).subList(1, args.length));
                 break;
             case "commit":
                 validateNumArgs(args, 2);
@@ -56,8 +92,14 @@ public class Main {
                 repo.globalLog();
                 break;
             case "find":
-                validateNumArgs(args, 2);
-                repo.find(args[1]);
+                if (args.length == 3 && args[1].equals("--substring")) {
+                    repo.find(args[2], "substring");
+                } else if (args.length == 3 && args[1].equals("--regex")) {
+                    repo.find(args[2], "regex");
+                } else {
+                    validateNumArgs(args, 2);
+                    repo.find(args[1]);
+                }
                 break;
             case "branch":
                 validateNumArgs(args, 2);
@@ -91,13 +133,40 @@ public class Main {
                 repo.push(args[1], args[2]);
                 break;
             case "fetch":
-                validateNumArgs(args, 3);
-                repo.fetch(args[1], args[2]);
+                fetch(args, repo);
                 break;
             case "pull":
                 validateNumArgs(args, 3);
                 repo.pull(args[1], args[2]);
                 break;
+            case "gc":
+                repo.gc();
+                break;
+            case "diff":
+                List<String> diffArgs = new ArrayList<>(Arrays.asList(args).subList(1, args.length));
+                boolean patience = diffArgs.remove("--patience");
+                if (diffArgs.size() > 2) {
+                    throw Utils.error("Incorrect operands.");
+                }
+                repo.diff(diffArgs.isEmpty() ? null : diffArgs.get(0),
+                          diffArgs.size() < 2 ? null : diffArgs.get(1), patience);
+                break;
+            case "reflog":
+                if (args.length == 1) {
+                    repo.reflog("HEAD");
+                } else {
+                    validateNumArgs(args, 2);
+                    repo.reflog(args[1]);
+                }
+                break;
+            case "config":
+                if (args.length == 2) {
+                    repo.config(args[1], null);
+                } else {
+                    validateNumArgs(args, 3);
+                    repo.config(args[1], args[2]);
+                }
+                break;
             default:
                 System.out.println("No command with that name exists.");
         }
@@ -105,9 +174,36 @@ public class Main {
 
     private static void validateNumArgs(String[] args, int n) {
         if (args.length != n) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw Utils.error("Incorrect operands.");
+        }
+    }
+
+    /** Runs fetch [--depth=N] [--filter=blob:none] REMOTE BRANCH, given as
+     *  ARGS, on REPO. */
+    private static void fetch(String[] args, Repository repo) {
+        List<String> operands = new ArrayList<>();
+        int depth = 0;
+        boolean blobs = true;
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].startsWith("--depth=")) {
+                try {
+                    depth = Integer.parseInt(args[i].substring("--depth=".length()));
+                } catch (NumberFormatException excp) {
+                    throw Utils.error("Incorrect operands.");
+                }
+                if (depth <= 0) {
+                    throw Utils.error("Incorrect operands.");
+                }
+            } else if (args[i].equals("--filter=blob:none")) {
+                blobs = false;
+            } else {
+                operands.add(args[i]);
+            }
+        }
+        if (operands.size() != 2) {
+            throw Utils.error("Incorrect operands.");
         }
+        repo.fetch(operands.get(0), operands.get(1), depth, blobs);
     }
 
     private static void handleCheckout(String[] args, Repository repo) {
@@ -0,0 +1,116 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** A line-level three-way merge in the manner of diff3.  The changes from
+ *  a common base to each of two versions are found with Diff and grouped
+ *  into chunks of overlapping or adjacent changes.  A chunk changed on
+ *  one side only, or identically on both, is taken as changed; any other
+ *  chunk is a conflict, and both versions of it are written between
+ *  conflict markers, so edits to different parts of a file merge
+ *  cleanly.
+ *  @author Zhang Yusen
+ */
+class Merge3 {
+
+    /** The merged text. */
+    private final StringBuilder text = new StringBuilder();
+    /** Number of conflicting chunks. */
+    private int conflicts;
+
+    /** Merges OURS and THEIRS, two versions of BASE. */
+    Merge3(String base, String ours, String theirs) {
+        List<String> baseLines = Diff.lines(base);
+        List<String> ourLines = Diff.lines(ours);
+        List<String> theirLines = Diff.lines(theirs);
+        HashMap<String, Integer> ids = new HashMap<>(2 * baseLines.size() + ourLines.size()
+                                                     + theirLines.size());
+        int[] baseIds = Diff.ids(baseLines, ids);
+        List<Diff.Edit> ourEdits = Diff.diff(baseIds, Diff.ids(ourLines, ids));
+        List<Diff.Edit> theirEdits = Diff.diff(baseIds, Diff.ids(theirLines, ids));
+
+        int done = 0;
+        int i = 0;
+        int j = 0;
+        while (i < ourEdits.size() || j < theirEdits.size()) {
+            List<Diff.Edit> ourChunk = new ArrayList<>();
+            List<Diff.Edit> theirChunk = new ArrayList<>();
+            int lo = Math.min(start(ourEdits, i), start(theirEdits, j));
+            int hi = lo;
+            while (true) {
+                if (i < ourEdits.size() && ourEdits.get(i).aStart <= hi) {
+                    hi = Math.max(hi, ourEdits.get(i).aEnd);
+                    ourChunk.add(ourEdits.get(i));
+                    i += 1;
+                } else if (j < theirEdits.size() && theirEdits.get(j).aStart <= hi) {
+                    hi = Math.max(hi, theirEdits.get(j).aEnd);
+                    theirChunk.add(theirEdits.get(j));
+                    j += 1;
+                } else {
+                    break;
+                }
+            }
+            append(baseLines, done, lo);
+            String ourText = chunk(baseLines, ourLines, ourChunk, lo, hi);
+            String theirText = chunk(baseLines, theirLines, theirChunk, lo, hi);
+            if (theirChunk.isEmpty() || ourText.equals(theirText)) {
+                text.append(ourText);
+            } else if (ourChunk.isEmpty()) {
+                text.append(theirText);
+            } else {
+                text.append("<<<<<<< HEAD\n").append(ourText).append("=======\n")
+                    .append(theirText).append(">>>>>>>\n");
+                conflicts += 1;
+            }
+            done = hi;
+        }
+        append(baseLines, done, baseLines.size());
+    }
+
+    /** Returns the merged text. */
+    String text() {
+        return text.toString();
+    }
+
+    /** Returns the number of conflicting chunks in the merged text. */
+    int conflicts() {
+        return conflicts;
+    }
+
+    /** Returns the base line at which the I-th of EDITS starts, or
+     *  Integer.MAX_VALUE if there is none. */
+    private static int start(List<Diff.Edit> edits, int i) {
+        return i < edits.size() ? edits.get(i).aStart : Integer.MAX_VALUE;
+    }
+
+    /** Appends lines [FROM, TO) of LINES to the merged text. */
+    private void append(List<String> lines, int from, int to) {
+        for (int k = from; k < to; k += 1) {
+            text.append(lines.get(k));
+        }
+    }
+
+    /** Returns the text that replaces base lines [LO, HI) of BASELINES in
+     *  the version VERSIONLINES, where EDITS are the edits of that version
+     *  lying within the range. */
+    private static String chunk(List<String> baseLines, List<String> versionLines,
+                                List<Diff.Edit> edits, int lo, int hi) {
+        List<String> lines = baseLines;
+        int from = lo;
+        int to = hi;
+        if (!edits.isEmpty()) {
+            Diff.Edit first = edits.get(0);
+            Diff.Edit last = edits.get(edits.size() - 1);
+            lines = versionLines;
+            from = first.bStart - (first.aStart - lo);
+            to = last.bEnd + (hi - last.aEnd);
+        }
+        StringBuilder result = new StringBuilder();
+        for (int k = from; k < to; k += 1) {
+            result.append(lines.get(k));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,336 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import static gitlet.Utils.*;
+
+/** An index of the messages of every commit in a store, so that find and
+ *  global-log need not read each commit.  The file is an append-only log
+ *  of (id, timestamp, message) records.  When loaded, it is turned into a
+ *  hash table from exact message to records, built on first use, and an
+ *  inverted index from each three-character substring (trigram) of a
+ *  message to the records containing it.  A substring or regular
+ *  expression search only tests the records that contain every trigram
+ *  of the search string, or of the longest literal run of the pattern.
+ *  @author Zhang Yusen
+ */
+class MessageIndex {
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x474d4931;
+    /** Length of the substrings in the inverted index. */
+    private static final int GRAM = 3;
+    /** Characters with a special meaning in a regular expression. */
+    private static final String META = "\\^$.|?*+()[]{}";
+
+    /** The file holding the log. */
+    private final File file;
+    /** Supplies every commit, to build the file when it is missing. */
+    private final Supplier<List<Commit>> allCommits;
+    /** Commit ids, timestamps and messages, by record number. */
+    private List<String> ids;
+    private List<String> times;
+    private List<String> messages;
+    /** Record numbers by exact message, built on first use. */
+    private HashMap<String, List<Integer>> exact;
+    /** Record numbers by trigram, built on first use. */
+    private HashMap<String, BitSet> grams;
+
+    /** An index stored in FILE.  If FILE does not exist, it is built from
+     *  the commits returned by ALLCOMMITS. */
+    MessageIndex(File file, Supplier<List<Commit>> allCommits) {
+        this.file = file;
+        this.allCommits = allCommits;
+    }
+
+    /** Records the message of COMMIT, which has just been stored. */
+    void add(Commit commit) {
+        addAll(List.of(commit));
+    }
+
+    /** Records the messages of COMMITS, which have just been stored, with
+     *  one write. */
+    void addAll(List<Commit> commits) {
+        if (!file.isFile()) {
+            ids = null;
+            load();
+            return;
+        }
+        write(commits, true);
+        ids = null;
+    }
+
+    /** Returns the number of commits in this index. */
+    int size() {
+        load();
+        return ids.size();
+    }
+
+    /** Returns the id of the I-th commit. */
+    String id(int i) {
+        return ids.get(i);
+    }
+
+    /** Returns the timestamp of the I-th commit. */
+    String timeStamp(int i) {
+        return times.get(i);
+    }
+
+    /** Returns the message of the I-th commit. */
+    String message(int i) {
+        return messages.get(i);
+    }
+
+    /** Returns the numbers of the commits whose message is MESSAGE. */
+    List<Integer> findExact(String message) {
+        load();
+        if (exact == null) {
+            exact = new HashMap<>();
+            for (int i = 0; i < messages.size(); i += 1) {
+                exact.computeIfAbsent(messages.get(i), k -> new ArrayList<>()).add(i);
+            }
+        }
+        return exact.getOrDefault(message, new ArrayList<>());
+    }
+
+    /** Returns the numbers of the commits whose message contains TEXT. */
+    List<Integer> findSubstring(String text) {
+        List<Integer> result = new ArrayList<>();
+        BitSet candidates = candidates(text);
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (messages.get(i).contains(text)) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the numbers of the commits with a message in which PATTERN
+     *  matches somewhere. */
+    List<Integer> findRegex(Pattern pattern) {
+        List<Integer> result = new ArrayList<>();
+        BitSet candidates = candidates(literal(pattern.pattern()));
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (pattern.matcher(messages.get(i)).find()) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the records that may contain TEXT: those containing all
+     *  its trigrams, or every record if TEXT is too short to have any. */
+    private BitSet candidates(String text) {
+        load();
+        BitSet result = new BitSet();
+        result.set(0, messages.size());
+        if (text.length() < GRAM) {
+            return result;
+        }
+        if (grams == null) {
+            grams = new HashMap<>();
+            for (int i = 0; i < messages.size(); i += 1) {
+                String message = messages.get(i);
+                for (int k = 0; k + GRAM <= message.length(); k += 1) {
+                    grams.computeIfAbsent(message.substring(k, k + GRAM),
+                                          g -> new BitSet()).set(i);
+                }
+            }
+        }
+        for (int k = 0; k + GRAM <= text.length() && !result.isEmpty(); k += 1) {
+            BitSet records = grams.get(text.substring(k, k + GRAM));
+            if (records == null) {
+                return new BitSet();
+            }
+            result.and(records);
+        }
+        return result;
+    }
+
+    /** Returns the longest run of characters that every match of REGEX
+     *  must contain, or "" if that cannot be worked out simply.  Anything
+     *  inside a group or character class is ignored, as is a character
+     *  made optional by a quantifier.  A backslash before a character that
+     *  is not a letter or digit, and \Q...\E, quote literal text; any
+     *  other escape ends the run, along with its arguments. */
+    static String literal(String regex) {
+        if (regex.contains("|") || regex.contains("(?")) {
+            return "";
+        }
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        boolean inClass = false;
+        int groups = 0;
+        for (int i = 0; i < regex.length(); i += 1) {
+            char c = regex.charAt(i);
+            if (inClass) {
+                if (c == '\\') {
+                    i += 1;
+                } else if (c == ']') {
+                    inClass = false;
+                }
+                continue;
+            }
+            if (c == '\\' && regex.startsWith("Q", i + 1)) {
+                int end = regex.indexOf("\\E", i + 2);
+                end = end < 0 ? regex.length() : end;
+                if (groups == 0) {
+                    run.append(regex, i + 2, end);
+                }
+                i = end + 1;
+                continue;
+            }
+            boolean quoted = c == '\\' && i + 1 < regex.length()
+                && !Character.isLetterOrDigit(regex.charAt(i + 1));
+            if (quoted) {
+                i += 1;
+                c = regex.charAt(i);
+            }
+            if (quoted || META.indexOf(c) < 0) {
+                if (groups == 0) {
+                    run.append(c);
+                }
+                continue;
+            }
+            if ((c == '?' || c == '*' || c == '{') && run.length() > 0) {
+                run.setLength(run.length() - 1);
+            }
+            if (run.length() > best.length()) {
+                best = run.toString();
+            }
+            run.setLength(0);
+            if (c == '\\') {
+                i = escapeEnd(regex, i + 1);
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                groups += 1;
+            } else if (c == ')') {
+                groups -= 1;
+            } else if (c == '{') {
+                while (i < regex.length() && regex.charAt(i) != '}') {
+                    i += 1;
+                }
+            }
+        }
+        return run.length() > best.length() ? run.toString() : best;
+    }
+
+    /** Returns the index of the last character of the escape in REGEX
+     *  whose letter or digit is at I, including any arguments. */
+    private static int escapeEnd(String regex, int i) {
+        if (i >= regex.length()) {
+            return i;
+        }
+        int end;
+        switch (regex.charAt(i)) {
+            case 'x':
+                end = regex.startsWith("{", i + 1) ? regex.indexOf('}', i) : i + 2;
+                break;
+            case 'p':
+            case 'P':
+            case 'N':
+                end = regex.startsWith("{", i + 1) ? regex.indexOf('}', i) : i + 1;
+                break;
+            case 'k':
+                end = regex.indexOf('>', i);
+                break;
+            case 'u':
+                end = i + 4;
+                break;
+            case 'c':
+                end = i + 1;
+                break;
+            default:
+                end = i;
+                if (Character.isDigit(regex.charAt(i))) {
+                    while (end + 1 < regex.length() && Character.isDigit(regex.charAt(end + 1))) {
+                        end += 1;
+                    }
+                }
+        }
+        return end < 0 ? regex.length() : Math.min(end, regex.length() - 1);
+    }
+
+    /** Reads the log, building it first if it does not exist or is
+     *  damaged. */
+    private void load() {
+        if (ids != null) {
+            return;
+        }
+        ByteBuffer in = file.isFile() ? ByteBuffer.wrap(readContents(file)) : null;
+        if (in == null || in.remaining() < 4 || in.getInt() != MAGIC) {
+            write(allCommits.get(), false);
+            in = ByteBuffer.wrap(readContents(file));
+            in.getInt();
+        }
+        ids = new ArrayList<>();
+        times = new ArrayList<>();
+        messages = new ArrayList<>();
+        exact = null;
+        grams = null;
+        byte[] id = new byte[UID_LENGTH / 2];
+        try {
+            while (in.hasRemaining()) {
+                in.get(id);
+                String time = getString(in);
+                String message = getString(in);
+                ids.add(bytesToUid(id, 0));
+                times.add(time);
+                messages.add(message);
+            }
+        } catch (BufferUnderflowException excp) {
+            write(allCommits.get(), false);
+            ids = null;
+            load();
+        }
+    }
+
+    /** Writes records for COMMITS, appending them to the file if APPEND,
+     *  and otherwise replacing it. */
+    private void write(List<Commit> commits, boolean append) {
+        long start = Trace.start();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file, append)))) {
+            if (!append) {
+                out.writeInt(MAGIC);
+            }
+            for (Commit commit : commits) {
+                out.write(uidToBytes(commit.getId()));
+                putString(out, commit.getTimeStamp());
+                putString(out, commit.getMessage());
+            }
+            out.flush();
+            Trace.record(Trace.Op.WRITE_CONTENTS, out.size(), start);
+        } catch (IOException excp) {
+            throw error("Cannot write message index: %s", excp.getMessage());
+        }
+    }
+
+    /** Writes S to OUT as a length and UTF-8 bytes. */
+    private static void putString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Reads a string written by putString from IN. */
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
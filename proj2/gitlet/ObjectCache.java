@@ -0,0 +1,81 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/** A bounded least-recently-used cache of objects read from an
+ *  ObjectStore, keyed by object id.  Each value has a weight (a byte
+ *  count for blobs, or 1 to bound the number of entries), and the least
+ *  recently used values are evicted to keep the total weight within the
+ *  capacity.  Cached values must not be modified.  Hits and misses are
+ *  counted, so that the effect of the cache can be measured.  All methods
+ *  are safe to call from several threads.
+ *  @author Zhang Yusen
+ */
+class ObjectCache<V> {
+
+    /** Upper bound on the total weight of the cached values. */
+    private final long capacity;
+    /** Returns the weight of a value. */
+    private final ToLongFunction<V> weigher;
+    /** Cached values by id, in access order. */
+    private final LinkedHashMap<String, V> values = new LinkedHashMap<>(16, 0.75f, true);
+    /** Total weight of the cached values. */
+    private long weight;
+    /** Number of lookups that found, or did not find, a value. */
+    private long hits;
+    private long misses;
+
+    /** A cache holding values of total weight at most CAPACITY, where the
+     *  weight of each value is given by WEIGHER. */
+    ObjectCache(long capacity, ToLongFunction<V> weigher) {
+        this.capacity = capacity;
+        this.weigher = weigher;
+    }
+
+    /** Returns the value cached for ID, or null. */
+    synchronized V get(String id) {
+        V value = values.get(id);
+        if (value == null) {
+            misses += 1;
+        } else {
+            hits += 1;
+        }
+        return value;
+    }
+
+    /** Returns true iff a value is cached for ID, without counting a
+     *  lookup or changing the order of eviction. */
+    synchronized boolean contains(String id) {
+        return values.containsKey(id);
+    }
+
+    /** Caches VALUE for ID, unless it would take more than a quarter of
+     *  the capacity, and returns VALUE. */
+    synchronized V put(String id, V value) {
+        long w = weigher.applyAsLong(value);
+        if (w > capacity / 4 || values.containsKey(id)) {
+            return value;
+        }
+        values.put(id, value);
+        weight += w;
+        Iterator<Map.Entry<String, V>> eldest = values.entrySet().iterator();
+        while (weight > capacity && eldest.hasNext()) {
+            weight -= weigher.applyAsLong(eldest.next().getValue());
+            eldest.remove();
+        }
+        return value;
+    }
+
+    /** Returns the number of lookups that found a value. */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /** Returns the number of lookups that found nothing. */
+    synchronized long misses() {
+        return misses;
+    }
+}
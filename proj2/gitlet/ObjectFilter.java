@@ -0,0 +1,211 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static gitlet.Utils.*;
+
+/** A Bloom filter of the ids of every object in a store, so that looking
+ *  up an object that is not there usually touches no file.  A negative
+ *  answer is certain, since every object the store writes is added; a
+ *  positive one is wrong for about one id in a hundred and is checked
+ *  against the files.
+ *
+ *  The file holds a header of magic number, capacity and count, then the
+ *  bits, BITS_PER_ID for each id of the capacity.  It is mapped, so that
+ *  adding an id sets its bits in place.  An id's bits are found by double
+ *  hashing with two 64-bit numbers taken from the id itself, which is
+ *  already a uniform hash.  Once the count reaches the capacity, the file
+ *  is rebuilt from every id in the store with twice the capacity; gc
+ *  rebuilds it to fit.  A rebuilt file replaces the old one, whose magic
+ *  number is first cleared, so that any other mapping of it, by another
+ *  store on the same directory, sees that it must map the file again.
+ *  @author Zhang Yusen
+ */
+class ObjectFilter {
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x47424631;
+    /** Size of the header: magic, capacity and count. */
+    private static final int HEADER = 12;
+    /** Bits of the filter per id of its capacity. */
+    private static final int BITS_PER_ID = 10;
+    /** Bits set for each id, which with BITS_PER_ID gives false positives
+     *  for under 1% of absent ids. */
+    private static final int HASHES = 7;
+    /** Smallest capacity of a filter. */
+    private static final int MIN_CAPACITY = 1024;
+
+    /** The file holding the filter. */
+    private final File file;
+    /** Supplies every object id, to build the file. */
+    private final Supplier<List<String>> allIds;
+    /** The mapped file, mapped on first use. */
+    private volatile MappedByteBuffer bits;
+
+    /** A filter stored in FILE.  If FILE does not exist, it is built from
+     *  the ids returned by ALLIDS. */
+    ObjectFilter(File file, Supplier<List<String>> allIds) {
+        this.file = file;
+        this.allIds = allIds;
+    }
+
+    /** Returns false if object ID is certainly not stored, and true if it
+     *  may be. */
+    boolean mightContain(String id) {
+        MappedByteBuffer map = bits;
+        if (map == null || map.getInt(0) != MAGIC) {
+            map = load();
+        }
+        long[] hashes = hashes(id);
+        if (hashes == null) {
+            return true;
+        }
+        long size = bitCount(map);
+        for (int i = 0; i < HASHES; i += 1) {
+            long bit = Long.remainderUnsigned(hashes[0] + i * hashes[1], size);
+            if ((map.get(HEADER + (int) (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Records that object ID has been stored. */
+    void add(String id) {
+        addAll(List.of(id));
+    }
+
+    /** Records that the objects IDS have been stored. */
+    synchronized void addAll(Iterable<String> ids) {
+        MappedByteBuffer map = load();
+        long size = bitCount(map);
+        int count = map.getInt(8);
+        for (String id : ids) {
+            long[] hashes = hashes(id);
+            if (hashes == null) {
+                continue;
+            }
+            for (int i = 0; i < HASHES; i += 1) {
+                long bit = Long.remainderUnsigned(hashes[0] + i * hashes[1], size);
+                int offset = HEADER + (int) (bit >>> 3);
+                map.put(offset, (byte) (map.get(offset) | (1 << (bit & 7))));
+            }
+            count += 1;
+        }
+        map.putInt(8, count);
+        if (count >= map.getInt(4)) {
+            rebuild(2 * count);
+        }
+    }
+
+    /** Replaces the file with a filter of every object id, sized for
+     *  twice their number. */
+    synchronized void rebuild() {
+        rebuild(0);
+    }
+
+    /** Replaces the file with a filter of every object id, with room for
+     *  at least CAPACITY ids. */
+    private void rebuild(int capacity) {
+        List<String> ids = allIds.get();
+        capacity = Math.max(Math.max(capacity, 2 * ids.size()), MIN_CAPACITY);
+        long bitCount = (long) capacity * BITS_PER_ID;
+        byte[] filter = new byte[(int) ((bitCount + 7) / 8)];
+        for (String id : ids) {
+            long[] hashes = hashes(id);
+            if (hashes == null) {
+                continue;
+            }
+            for (int i = 0; i < HASHES; i += 1) {
+                long bit = Long.remainderUnsigned(hashes[0] + i * hashes[1], bitCount);
+                filter[(int) (bit >>> 3)] |= 1 << (bit & 7);
+            }
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        long start = Trace.start();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(capacity);
+            out.writeInt(ids.size());
+            out.write(filter);
+            out.flush();
+            Trace.record(Trace.Op.WRITE_CONTENTS, out.size(), start);
+        } catch (IOException excp) {
+            throw error("Cannot write object filter: %s", excp.getMessage());
+        }
+        if (file.length() >= HEADER) {
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                                                        StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(4), 0);
+            } catch (IOException excp) {
+                throw error("Cannot write object filter: %s", excp.getMessage());
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw error("Cannot write object filter.");
+        }
+        bits = null;
+    }
+
+    /** Returns the mapped file, building it first if it does not exist or
+     *  is not a filter. */
+    private synchronized MappedByteBuffer load() {
+        if (bits != null && bits.getInt(0) == MAGIC) {
+            return bits;
+        }
+        bits = null;
+        if (!file.isFile() || file.length() < HEADER) {
+            rebuild(0);
+        }
+        for (int attempt = 0; bits == null; attempt += 1) {
+            long start = Trace.start();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                                                        StandardOpenOption.WRITE)) {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                                                   channel.size());
+                Trace.record(Trace.Op.MAP, channel.size(), start);
+                if (map.getInt(0) == MAGIC
+                    && HEADER + (bitCount(map) + 7) / 8 == channel.size()) {
+                    bits = map;
+                } else if (attempt == 0) {
+                    rebuild(0);
+                } else {
+                    throw error("Cannot read object filter.");
+                }
+            } catch (IOException excp) {
+                throw error("Cannot read object filter: %s", excp.getMessage());
+            }
+        }
+        return bits;
+    }
+
+    /** Returns the number of bits in the filter MAP. */
+    private static long bitCount(MappedByteBuffer map) {
+        return (long) map.getInt(4) * BITS_PER_ID;
+    }
+
+    /** Returns the two hashes of ID, a full hex id, or null if it is
+     *  not one. */
+    private static long[] hashes(String id) {
+        if (id.length() != UID_LENGTH) {
+            return null;
+        }
+        try {
+            return new long[] {Long.parseUnsignedLong(id, 0, 16, 16),
+                               Long.parseUnsignedLong(id, 16, 32, 16) | 1};
+        } catch (NumberFormatException excp) {
+            return null;
+        }
+    }
+}
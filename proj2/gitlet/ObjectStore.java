@@ -0,0 +1,1104 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/** The content-addressed object database of one .gitlet directory.
+ *  The commits, trees and blobs a command writes are held in memory until
+ *  sync, which writes them all as one new pack under packs/ and forces it
+ *  to disk, so that a command costs one pack rather than a file and an
+ *  fsync per object.  Small packs are merged as they accumulate, and gc
+ *  merges everything into one.  Stores written by older versions may also
+ *  hold loose objects, one file per object under commits/, trees/, blobs/
+ *  and the directories below; gc packs those too.
+ *  Blobs are compressed with the codec named in the repository's config,
+ *  when that makes them smaller, and stored as the codec id, the
+ *  uncompressed size and the compressed bytes.
+ *  A blob that is a small edit of an earlier one is stored as the id of
+ *  that base plus a binary delta, with chains of at most MAX_DELTA_DEPTH
+ *  deltas.  A blob of at least CHUNKED_BLOB bytes is cut into chunks by
+ *  Chunker, each stored as a blob of its own, and stored as the list of
+ *  their ids, so that versions of a large file share their unchanged
+ *  chunks.  Readers go through this class and
+ *  never need to know which of these forms an object is currently in.
+ *  @author Zhang Yusen
+ */
+class ObjectStore {
+
+    /** Type code of a commit. */
+    static final byte COMMIT = 1;
+    /** Type code of a blob. */
+    static final byte BLOB = 2;
+    /** Type code of a blob stored as a delta against another blob. */
+    static final byte DELTA = 3;
+    /** Type code of a tree. */
+    static final byte TREE = 4;
+    /** Type code of a compressed blob. */
+    static final byte COMPRESSED = 5;
+    /** Type code of a blob stored as a list of chunks. */
+    static final byte CHUNKED = 6;
+
+    /** The longest chain of deltas needed to reconstruct a blob. */
+    static final int MAX_DELTA_DEPTH = 10;
+    /** Blobs smaller than this many bytes are always stored whole. */
+    private static final int MIN_DELTA_SIZE = 512;
+    /** Blobs of at least this many bytes are stored as chunk lists. */
+    static final long CHUNKED_BLOB = 1 << 20;
+    /** Loose blobs of at least this many bytes, written before blobs were
+     *  chunked, are copied between files rather than read into memory and
+     *  stay loose when the store is packed. */
+    static final long LARGE_BLOB = 8 << 20;
+    /** Objects waiting for sync are written out early once their stored
+     *  bytes reach this many. */
+    private static final long PENDING_BYTES = 64 << 20;
+    /** Packs are left unmerged until there are more than this many. */
+    private static final int UNMERGED_PACKS = 8;
+    /** Number of chunks of a large blob stored at once. */
+    private static final int CHUNK_BATCH = 64;
+    /** Upper bound on the bytes of the cached blobs. */
+    private static final long BLOB_CACHE_BYTES = 16 << 20;
+    /** Upper bound on the number of cached commits, and of cached trees. */
+    private static final long OBJECT_CACHE_ENTRIES = 4096;
+
+    /** The .gitlet directory holding this store. */
+    private final File gitletDir;
+    /** True iff this store only reads objects, as from a remote. */
+    private final boolean readOnly;
+    /** Directory of loose commits. */
+    private final File commitDir;
+    /** Directory of loose blobs. */
+    private final File blobDir;
+    /** Directory of loose deltas. */
+    private final File deltaDir;
+    /** Directory of loose trees. */
+    private final File treeDir;
+    /** Directory of loose compressed blobs. */
+    private final File compressedDir;
+    /** Directory of loose chunk lists. */
+    private final File chunkedDir;
+    /** Directory of packs. */
+    private final File packDir;
+    /** Sorted index of the commit ids, for resolving abbreviations, or
+     *  null if this store is read-only. */
+    private final CommitIndex commitIndex;
+    /** Index of the commit messages, for find and global-log, or null if
+     *  this store is read-only. */
+    private final MessageIndex messageIndex;
+    /** Filter of the ids of every stored object, for answering that an
+     *  object is absent without touching its files, or null if this store
+     *  is read-only. */
+    private final ObjectFilter filter;
+    /** Objects written since the last sync, by id. */
+    private final Map<String, PackFile.Entry> pending = new ConcurrentHashMap<>();
+    /** The stored bytes of the objects in PENDING. */
+    private long pendingBytes;
+    /** The codec for new blobs, read from the config on first use. */
+    private Codec codec;
+    /** The store of the remote from which missing blobs are fetched, or
+     *  null; looked up in the config on first use. */
+    private ObjectStore promisor;
+    private boolean promisorRead;
+    /** The packs of this store, loaded on first use. */
+    private List<PackFile> packs;
+    /** Recently read commits, trees and blobs, including delta bases. */
+    private final ObjectCache<Commit> commitCache =
+        new ObjectCache<>(OBJECT_CACHE_ENTRIES, commit -> 1);
+    private final ObjectCache<Tree> treeCache =
+        new ObjectCache<>(OBJECT_CACHE_ENTRIES, tree -> 1);
+    private final ObjectCache<byte[]> blobCache =
+        new ObjectCache<>(BLOB_CACHE_BYTES, contents -> contents.length);
+
+    /** An object store rooted at the .gitlet directory GITLETDIR. */
+    ObjectStore(File gitletDir) {
+        this(gitletDir, false);
+    }
+
+    /** An object store rooted at the .gitlet directory GITLETDIR.  If
+     *  READONLY, as for the store of another repository, it answers from
+     *  the loose objects and packs alone and writes nothing into
+     *  GITLETDIR, not even its side indexes. */
+    ObjectStore(File gitletDir, boolean readOnly) {
+        this.gitletDir = gitletDir;
+        this.readOnly = readOnly;
+        this.commitDir = join(gitletDir, "commits");
+        this.blobDir = join(gitletDir, "blobs");
+        this.deltaDir = join(gitletDir, "deltas");
+        this.treeDir = join(gitletDir, "trees");
+        this.compressedDir = join(gitletDir, "compressed");
+        this.chunkedDir = join(gitletDir, "chunked");
+        this.packDir = join(gitletDir, "packs");
+        if (readOnly) {
+            this.commitIndex = null;
+            this.messageIndex = null;
+            this.filter = null;
+            return;
+        }
+        this.commitIndex = new CommitIndex(join(gitletDir, "commit-index"), this::commitIds);
+        this.messageIndex = new MessageIndex(join(gitletDir, "message-index"), this::commits);
+        this.filter = new ObjectFilter(join(gitletDir, "object-filter"), this::objectIds);
+    }
+
+    /** Returns the .gitlet directory holding this store. */
+    File getDirectory() {
+        return gitletDir;
+    }
+
+    /** Returns true iff commit ID is stored here. */
+    boolean hasCommit(String id) {
+        return commitCache.contains(id) || has(id, COMMIT);
+    }
+
+    /** Returns true iff blob ID is stored here. */
+    boolean hasBlob(String id) {
+        return has(id, BLOB) || has(id, COMPRESSED) || has(id, CHUNKED) || has(id, DELTA);
+    }
+
+    /** Returns commit ID, or null if it is not stored here.  The commit
+     *  may be shared with other callers and must not be modified. */
+    Commit readCommit(String id) {
+        Commit cached = commitCache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] contents = read(id, COMMIT);
+        if (contents == null) {
+            return null;
+        }
+        Commit commit;
+        if (Commit.isEncoded(contents)) {
+            commit = Commit.decode(id, contents);
+        } else {
+            commit = deserialize(contents, Commit.class);
+            commit.setId(id);
+        }
+        commit.attach(this);
+        return commitCache.put(id, commit);
+    }
+
+    /** Stores COMMIT under its id. */
+    void writeCommit(Commit commit) {
+        if (!hasCommit(commit.getId())) {
+            stage(commit.getId(), COMMIT, commit.encode());
+            commitIndex.add(commit.getId());
+            messageIndex.add(commit);
+        }
+    }
+
+    /** Returns the index of the messages of the stored commits. */
+    MessageIndex messages() {
+        return messageIndex;
+    }
+
+    /** Returns the ids of the stored commits whose ids start with PREFIX. */
+    List<String> commitIdsWithPrefix(String prefix) {
+        if (readOnly) {
+            List<String> result = new ArrayList<>();
+            for (String id : commitIds()) {
+                if (id.startsWith(prefix)) {
+                    result.add(id);
+                }
+            }
+            return result;
+        }
+        return commitIndex.matches(prefix);
+    }
+
+    /** Returns true iff tree ID is stored here. */
+    boolean hasTree(String id) {
+        return treeCache.contains(id) || has(id, TREE);
+    }
+
+    /** Returns tree ID, which must be stored here.  The tree may be shared
+     *  with other callers and must not be modified. */
+    Tree readTree(String id) {
+        Tree cached = treeCache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] contents = read(id, TREE);
+        if (contents == null) {
+            throw error("Missing tree %s.", id);
+        }
+        return treeCache.put(id, Tree.decode(contents));
+    }
+
+    /** Stores TREE and returns its id. */
+    String writeTree(Tree tree) {
+        byte[] contents = tree.encode();
+        String id = sha1(contents);
+        if (!hasTree(id)) {
+            stage(id, TREE, contents);
+        }
+        return id;
+    }
+
+    /** Returns the id of the tree of a commit whose parent is PARENT (which
+     *  may be null) and whose files differ from the parent's by CHANGES, a
+     *  map from path to new blob id, or to null for a removed path. */
+    String writeTree(Commit parent, Map<String, String> changes) {
+        if (parent == null) {
+            return Tree.update(this, null, changes);
+        }
+        if (parent.getTree() != null) {
+            return Tree.update(this, parent.getTree(), changes);
+        }
+        HashMap<String, String> all = new HashMap<>();
+        if (parent.getBlobs() != null) {
+            all.putAll(parent.getBlobs());
+        }
+        all.putAll(changes);
+        return Tree.update(this, null, all);
+    }
+
+    /** Returns the files of tree TREEID as a map from path to blob id. */
+    HashMap<String, String> flattenTree(String treeId) {
+        HashMap<String, String> result = new HashMap<>();
+        Tree.flatten(this, treeId, "", result);
+        return result;
+    }
+
+    /** Returns the paths of the files that differ between commits A and B,
+     *  including files tracked by only one of them. */
+    Set<String> changedPaths(Commit a, Commit b) {
+        HashSet<String> result = new HashSet<>();
+        if (a.getTree() != null && b.getTree() != null) {
+            Tree.diff(this, a.getTree(), b.getTree(), "", result);
+            return result;
+        }
+        Map<String, String> left = a.getBlobs() == null ? new HashMap<>() : a.getBlobs();
+        Map<String, String> right = b.getBlobs() == null ? new HashMap<>() : b.getBlobs();
+        for (String path : left.keySet()) {
+            if (!left.get(path).equals(right.get(path))) {
+                result.add(path);
+            }
+        }
+        for (String path : right.keySet()) {
+            if (!left.containsKey(path)) {
+                result.add(path);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the ids of START and of its ancestors fewer than DEPTH
+     *  parents away from it, generation by generation, leaving out every
+     *  commit for which STOP is true and those reached only through one.
+     *  Commits not stored here are left out too. */
+    List<String> ancestors(String start, int depth, Predicate<String> stop) {
+        List<String> result = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        List<String> generation = List.of(start);
+        for (int d = 0; d < depth && !generation.isEmpty(); d += 1) {
+            List<String> next = new ArrayList<>();
+            for (String id : generation) {
+                if (id == null || !seen.add(id) || stop.test(id)) {
+                    continue;
+                }
+                Commit commit = readCommit(id);
+                if (commit == null) {
+                    continue;
+                }
+                result.add(id);
+                next.add(commit.getParent());
+                next.add(commit.getSecondParent());
+            }
+            generation = next;
+        }
+        return result;
+    }
+
+    /** Copies the commits COMMITIDS, which are stored here, into DEST with
+     *  every tree they need and, iff BLOBS, every blob, except those of
+     *  their parents that DEST already has.  The missing set is worked out
+     *  here, asking DEST only about those parents rather than about each
+     *  object, and written to DEST as one new pack; blobs too large to pack
+     *  are copied as files first.  Returns the number of objects sent. */
+    int sendPack(List<String> commitIds, ObjectStore dest, boolean blobs) {
+        dest.checkWritable();
+        HashSet<String> sending = new HashSet<>(commitIds);
+        HashSet<String> boundary = new HashSet<>();
+        HashSet<String> known = new HashSet<>();
+        for (String id : commitIds) {
+            Commit commit = readCommit(id);
+            for (String parent : new String[] {commit.getParent(), commit.getSecondParent()}) {
+                if (parent != null && !sending.contains(parent) && boundary.add(parent)
+                    && hasCommit(parent) && dest.hasCommit(parent)) {
+                    addReachable(readCommit(parent), known);
+                }
+            }
+        }
+
+        TreeMap<String, PackFile.Entry> entries = new TreeMap<>();
+        List<String> largeBlobs = new ArrayList<>();
+        List<Commit> commits = new ArrayList<>();
+        for (String id : commitIds) {
+            Commit commit = readCommit(id);
+            commits.add(commit);
+            entries.put(id, new PackFile.Entry(COMMIT, commit.encode()));
+            if (commit.getTree() != null) {
+                packTree(commit.getTree(), blobs, dest, known, entries, largeBlobs);
+            } else if (blobs && commit.getBlobs() != null) {
+                for (String blobId : commit.getBlobs().values()) {
+                    packBlob(blobId, dest, known, entries, largeBlobs);
+                }
+            }
+        }
+
+        for (String id : largeBlobs) {
+            dest.writeBlob(id, join(blobDir, id), null);
+        }
+        if (!entries.isEmpty()) {
+            dest.packDir.mkdirs();
+            PackFile.write(dest.packDir, entries);
+            synchronized (dest) {
+                dest.packs = null;
+            }
+            dest.filter.addAll(entries.keySet());
+        }
+        List<String> added = new ArrayList<>();
+        List<Commit> addedCommits = new ArrayList<>();
+        for (Commit commit : commits) {
+            if (dest.commitIdsWithPrefix(commit.getId()).isEmpty()) {
+                added.add(commit.getId());
+                addedCommits.add(commit);
+            }
+        }
+        dest.commitIndex.addAll(added);
+        dest.messageIndex.addAll(addedCommits);
+        return entries.size() + largeBlobs.size();
+    }
+
+    /** Adds the ids of the trees and blobs of COMMIT to KNOWN. */
+    private void addReachable(Commit commit, Set<String> known) {
+        if (commit.getTree() != null) {
+            addReachable(commit.getTree(), known);
+        } else if (commit.getBlobs() != null) {
+            known.addAll(commit.getBlobs().values());
+        }
+    }
+
+    /** Adds TREEID and the ids of its subtrees and blobs to KNOWN, skipping
+     *  subtrees already there. */
+    private void addReachable(String treeId, Set<String> known) {
+        if (!known.add(treeId)) {
+            return;
+        }
+        Tree tree = readTree(treeId);
+        known.addAll(tree.blobIds());
+        for (String subtreeId : tree.subtreeIds()) {
+            addReachable(subtreeId, known);
+        }
+    }
+
+    /** Adds tree TREEID, with its subtrees and, iff BLOBS, their blobs, to
+     *  ENTRIES for sending to DEST unless it is in KNOWN, adding each to
+     *  KNOWN.  Large loose blobs are added to LARGEBLOBS instead. */
+    private void packTree(String treeId, boolean blobs, ObjectStore dest, Set<String> known,
+                          Map<String, PackFile.Entry> entries, List<String> largeBlobs) {
+        if (!known.add(treeId)) {
+            return;
+        }
+        byte[] contents = read(treeId, TREE);
+        entries.put(treeId, new PackFile.Entry(TREE, contents));
+        Tree tree = Tree.decode(contents);
+        for (String blobId : blobs ? tree.blobIds() : List.<String>of()) {
+            packBlob(blobId, dest, known, entries, largeBlobs);
+        }
+        for (String subtreeId : tree.subtreeIds()) {
+            packTree(subtreeId, blobs, dest, known, entries, largeBlobs);
+        }
+    }
+
+    /** Adds blob ID, in the form it is stored in here, to ENTRIES for
+     *  sending to DEST unless it is in KNOWN, adding it to KNOWN.  A delta
+     *  brings its base along if that is not known either, a chunk list
+     *  brings those of its chunks that DEST lacks, and a large loose blob
+     *  is added to LARGEBLOBS instead.  A blob this partial clone lacks is
+     *  first fetched from its promisor, unless DEST has it already; one
+     *  that cannot be found is an error, as DEST would be left naming it. */
+    private void packBlob(String id, ObjectStore dest, Set<String> known,
+                          Map<String, PackFile.Entry> entries, List<String> largeBlobs) {
+        if (!known.add(id)) {
+            return;
+        }
+        File loose = join(blobDir, id);
+        if (loose.isFile() && loose.length() >= LARGE_BLOB) {
+            largeBlobs.add(id);
+            return;
+        }
+        for (byte type : new byte[] {BLOB, COMPRESSED}) {
+            byte[] contents = read(id, type);
+            if (contents != null) {
+                entries.put(id, new PackFile.Entry(type, contents));
+                return;
+            }
+        }
+        byte[] chunks = read(id, CHUNKED);
+        if (chunks != null) {
+            entries.put(id, new PackFile.Entry(CHUNKED, chunks));
+            for (String chunkId : chunkIds(chunks)) {
+                if (!dest.hasBlob(chunkId)) {
+                    packBlob(chunkId, dest, known, entries, largeBlobs);
+                }
+            }
+            return;
+        }
+        byte[] delta = read(id, DELTA);
+        if (delta != null) {
+            packBlob(new String(delta, 0, UID_LENGTH, StandardCharsets.UTF_8), dest, known,
+                     entries, largeBlobs);
+            entries.put(id, new PackFile.Entry(DELTA, delta));
+            return;
+        }
+        if (dest.hasBlob(id)) {
+            return;
+        }
+        if (!fetchPromised(id)) {
+            throw error("Cannot send blob %s, which is not stored here.", id);
+        }
+        known.remove(id);
+        packBlob(id, dest, known, entries, largeBlobs);
+    }
+
+    /** Returns the number of reads of commits, trees and blobs answered
+     *  from memory. */
+    long cacheHits() {
+        return commitCache.hits() + treeCache.hits() + blobCache.hits();
+    }
+
+    /** Returns the number of reads of commits, trees and blobs that had to
+     *  go to disk. */
+    long cacheMisses() {
+        return commitCache.misses() + treeCache.misses() + blobCache.misses();
+    }
+
+    /** Returns the contents of blob ID, or null if it is not stored here.
+     *  The array may be shared with other callers and must not be
+     *  modified. */
+    byte[] readBlob(String id) {
+        byte[] contents = blobCache.get(id);
+        if (contents != null) {
+            return contents;
+        }
+        contents = read(id, BLOB);
+        if (contents != null) {
+            return blobCache.put(id, contents);
+        }
+        contents = read(id, COMPRESSED);
+        if (contents != null) {
+            return blobCache.put(id, uncompress(contents));
+        }
+        byte[] chunks = read(id, CHUNKED);
+        if (chunks != null) {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            for (String chunkId : chunkIds(chunks)) {
+                result.writeBytes(readChunk(chunkId));
+            }
+            return blobCache.put(id, result.toByteArray());
+        }
+        byte[] delta = read(id, DELTA);
+        if (delta == null) {
+            return fetchPromised(id) ? readBlob(id) : null;
+        }
+        String baseId = new String(delta, 0, UID_LENGTH, StandardCharsets.UTF_8);
+        byte[] base = readBlob(baseId);
+        if (base == null) {
+            throw error("Missing delta base %s of blob %s.", baseId, id);
+        }
+        contents = Delta.apply(base,
+                Arrays.copyOfRange(delta, UID_LENGTH + 1, delta.length));
+        return blobCache.put(id, contents);
+    }
+
+    /** Writes the contents of blob ID, which must be stored here, to FILE,
+     *  creating its directory if needed.  Loose and packed blobs are
+     *  copied without being read into memory. */
+    void writeBlobTo(String id, File file) {
+        File parent = file.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        File loose = join(blobDir, id);
+        if (loose.isFile()) {
+            copyContents(loose, file);
+            return;
+        }
+        for (PackFile pack : packs()) {
+            ByteBuffer contents = pack.slice(id, BLOB);
+            if (contents != null) {
+                writeContents(file, contents);
+                return;
+            }
+        }
+        if (!hasBlob(id) && fetchPromised(id)) {
+            writeBlobTo(id, file);
+            return;
+        }
+        byte[] chunks = read(id, CHUNKED);
+        if (chunks != null) {
+            long start = Trace.start();
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                for (String chunkId : chunkIds(chunks)) {
+                    out.write(readChunk(chunkId));
+                }
+                Trace.record(Trace.Op.WRITE_CONTENTS, file.length(), start);
+            } catch (IOException excp) {
+                throw error("Cannot write %s: %s", file, excp.getMessage());
+            }
+            return;
+        }
+        byte[] contents = readBlob(id);
+        if (contents == null) {
+            throw error("Missing blob %s.", id);
+        }
+        writeContents(file, contents);
+    }
+
+    /** Copies blob ID from the remote this store was partially fetched
+     *  from, if it is a partial clone and the remote has the blob.
+     *  Returns true iff the blob is now stored here. */
+    private boolean fetchPromised(String id) {
+        ObjectStore remote = promisor();
+        if (remote == null || !remote.hasBlob(id)) {
+            return false;
+        }
+        File loose = join(remote.blobDir, id);
+        if (loose.isFile() && loose.length() >= LARGE_BLOB) {
+            writeBlob(id, loose, null);
+        } else {
+            writeBlob(id, remote.readBlob(id));
+        }
+        return true;
+    }
+
+    /** Returns the store of this partial clone's promisor remote, or null
+     *  if this store is not a partial clone or the remote is gone. */
+    private synchronized ObjectStore promisor() {
+        if (!promisorRead) {
+            promisorRead = true;
+            String remoteName = new Config(join(gitletDir, "config"))
+                .get(Config.PARTIAL_CLONE, null);
+            File remoteFile = remoteName == null ? null : join(gitletDir, "remotes", remoteName);
+            if (remoteFile != null && remoteFile.isFile()) {
+                File remoteDir = new File(readContentsAsString(remoteFile));
+                if (remoteDir.isDirectory()) {
+                    promisor = new ObjectStore(remoteDir, true);
+                }
+            }
+        }
+        return promisor;
+    }
+
+    /** Stores the contents of FILE as blob ID, as a delta against blob
+     *  BASEID if that is much smaller.  Large files are chunked without
+     *  being read into memory whole.  BASEID may be null. */
+    void writeBlob(String id, File file, String baseId) {
+        if (hasBlob(id)) {
+            return;
+        }
+        if (file.length() >= CHUNKED_BLOB) {
+            long start = Trace.start();
+            try (FileInputStream in = new FileInputStream(file)) {
+                writeChunked(id, in);
+                Trace.record(Trace.Op.READ_CONTENTS, file.length(), start);
+            } catch (IOException excp) {
+                throw error("Cannot read %s: %s", file, excp.getMessage());
+            }
+        } else {
+            writeBlob(id, readContents(file), baseId);
+        }
+    }
+
+    /** Stores CONTENTS as blob ID. */
+    void writeBlob(String id, byte[] contents) {
+        writeBlob(id, contents, null);
+    }
+
+    /** Stores CONTENTS as blob ID, as a delta against blob BASEID if that
+     *  is much smaller than CONTENTS.  BASEID may be null. */
+    void writeBlob(String id, byte[] contents, String baseId) {
+        if (hasBlob(id)) {
+            return;
+        }
+        if (contents.length >= CHUNKED_BLOB) {
+            writeChunked(id, new ByteArrayInputStream(contents));
+            return;
+        }
+        if (baseId != null && !baseId.equals(id) && contents.length >= MIN_DELTA_SIZE) {
+            int depth = deltaDepth(baseId);
+            if (depth >= 0 && depth < MAX_DELTA_DEPTH) {
+                byte[] delta = Delta.create(readBlob(baseId), contents);
+                if (delta.length < contents.length / 2) {
+                    ByteArrayOutputStream stored = new ByteArrayOutputStream();
+                    stored.writeBytes(baseId.getBytes(StandardCharsets.UTF_8));
+                    stored.write(depth + 1);
+                    stored.writeBytes(delta);
+                    stage(id, DELTA, stored.toByteArray());
+                    return;
+                }
+            }
+        }
+        byte[] compressed = compress(contents);
+        if (compressed != null) {
+            stage(id, COMPRESSED, compressed);
+        } else {
+            stage(id, BLOB, contents);
+        }
+    }
+
+    /** Stores the contents of IN as blob ID, a list of chunks, storing
+     *  those chunks not already here.  Chunks are hashed, compressed and
+     *  written in parallel, CHUNK_BATCH at a time. */
+    private void writeChunked(String id, InputStream in) {
+        Chunker chunker = new Chunker(in);
+        StringBuilder chunkIds = new StringBuilder();
+        List<byte[]> batch = new ArrayList<>(CHUNK_BATCH);
+        byte[] chunk;
+        do {
+            chunk = chunker.next();
+            if (chunk != null) {
+                batch.add(chunk);
+            }
+            if (batch.size() == CHUNK_BATCH || chunk == null && !batch.isEmpty()) {
+                String[] ids = batch.parallelStream().map(c -> sha1(c)).toArray(String[]::new);
+                Map<String, byte[]> unique = new HashMap<>();
+                for (int i = 0; i < ids.length; i += 1) {
+                    unique.put(ids[i], batch.get(i));
+                    chunkIds.append(ids[i]);
+                }
+                unique.entrySet().parallelStream()
+                    .forEach(entry -> writeBlob(entry.getKey(), entry.getValue(), null));
+                batch.clear();
+            }
+        } while (chunk != null);
+        stage(id, CHUNKED, chunkIds.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Adds object ID of type TYPE, whose stored bytes are CONTENTS, to
+     *  those the next sync writes, syncing now if they have grown to
+     *  PENDING_BYTES. */
+    private synchronized void stage(String id, byte type, byte[] contents) {
+        checkWritable();
+        pending.put(id, new PackFile.Entry(type, contents));
+        filter.add(id);
+        pendingBytes += contents.length;
+        if (pendingBytes >= PENDING_BYTES) {
+            sync();
+        }
+    }
+
+    /** Throws a GitletException if this store is read-only. */
+    private void checkWritable() {
+        if (readOnly) {
+            throw error("Cannot write to the object store in %s.", gitletDir);
+        }
+    }
+
+    /** Writes the objects stored since the last sync as one new pack,
+     *  forced to disk, so that a command costs one pack however many
+     *  objects it writes.  Called before any ref or staging area that may
+     *  name them is replaced. */
+    synchronized void sync() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        packDir.mkdirs();
+        List<PackFile> all = new ArrayList<>(packs());
+        all.addAll(PackFile.write(packDir, new TreeMap<>(pending)));
+        packs = all;
+        pending.clear();
+        pendingBytes = 0;
+        mergeSmallPacks();
+    }
+
+    /** Once there are more than UNMERGED_PACKS packs, merges the smallest
+     *  into one, as git's geometric repack does, so that each pack left is
+     *  at least twice the size of the next smaller.  A store written by
+     *  many commands thus keeps O(log N) packs for N objects, and each
+     *  object is rewritten O(log N) times. */
+    private void mergeSmallPacks() {
+        if (packs.size() <= UNMERGED_PACKS) {
+            return;
+        }
+        List<PackFile> bySize = new ArrayList<>(packs);
+        bySize.sort(Comparator.comparingLong(ObjectStore::packSize));
+        int split = bySize.size() - 1;
+        while (split > 0
+               && packSize(bySize.get(split)) >= 2 * packSize(bySize.get(split - 1))) {
+            split -= 1;
+        }
+        if (split > 0) {
+            split += 1;
+        }
+        long total = 0;
+        for (PackFile pack : bySize.subList(0, split)) {
+            total += packSize(pack);
+        }
+        while (split < bySize.size() && packSize(bySize.get(split)) < 2 * total) {
+            total += packSize(bySize.get(split));
+            split += 1;
+        }
+        if (split < 2) {
+            return;
+        }
+        List<PackFile> merged = bySize.subList(0, split);
+        TreeMap<String, PackFile.Entry> objects = new TreeMap<>();
+        for (PackFile pack : merged) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                objects.put(pack.idAt(i),
+                            new PackFile.Entry(pack.typeAt(i), pack.contentsAt(i)));
+            }
+        }
+        List<PackFile> all = new ArrayList<>(bySize.subList(split, bySize.size()));
+        all.addAll(PackFile.write(packDir, objects));
+        packs = all;
+        deletePacks(merged, all);
+    }
+
+    /** Returns the size in bytes of PACK. */
+    private static long packSize(PackFile pack) {
+        return pack.files()[0].length();
+    }
+
+    /** Deletes the files of the packs OLDPACKS, except those of packs that
+     *  are also in NEWPACKS, having the same objects. */
+    private static void deletePacks(List<PackFile> oldPacks, List<PackFile> newPacks) {
+        Set<File> kept = new HashSet<>();
+        for (PackFile pack : newPacks) {
+            kept.add(pack.files()[1]);
+        }
+        for (PackFile pack : oldPacks) {
+            if (!kept.contains(pack.files()[1])) {
+                for (File file : pack.files()) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /** Returns the ids of the chunks in the chunk list STORED. */
+    private static List<String> chunkIds(byte[] stored) {
+        List<String> result = new ArrayList<>(stored.length / UID_LENGTH);
+        for (int i = 0; i + UID_LENGTH <= stored.length; i += UID_LENGTH) {
+            result.add(new String(stored, i, UID_LENGTH, StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    /** Returns the contents of chunk ID, which must be stored here.  Whole
+     *  chunks are not cached, so that reading a large blob does not push
+     *  everything else out of the cache. */
+    private byte[] readChunk(String id) {
+        byte[] contents = read(id, BLOB);
+        if (contents != null) {
+            return contents;
+        }
+        contents = read(id, COMPRESSED);
+        if (contents != null) {
+            return uncompress(contents);
+        }
+        contents = readBlob(id);
+        if (contents == null) {
+            throw error("Missing chunk %s.", id);
+        }
+        return contents;
+    }
+
+    /** Returns CONTENTS in the stored form of a compressed blob, or null if
+     *  compressing does not make them smaller. */
+    private byte[] compress(byte[] contents) {
+        if (codec == null) {
+            codec = new Config(join(gitletDir, "config")).codec();
+        }
+        if (codec == Codec.NONE) {
+            return null;
+        }
+        byte[] data = codec.compress(contents);
+        if (data.length + 5 >= contents.length) {
+            return null;
+        }
+        return ByteBuffer.allocate(5 + data.length).put(codec.id())
+                .putInt(contents.length).put(data).array();
+    }
+
+    /** Returns the contents of a blob whose stored compressed form is
+     *  STORED. */
+    private static byte[] uncompress(byte[] stored) {
+        int size = ByteBuffer.wrap(stored, 1, 4).getInt();
+        return Codec.forId(stored[0]).decompress(stored, 5, stored.length - 5, size);
+    }
+
+    /** Returns the ids of all commits in this store, in sorted order. */
+    List<String> commitIds() {
+        TreeSet<String> result = new TreeSet<>(listLoose(commitDir));
+        for (Map.Entry<String, PackFile.Entry> entry : pending.entrySet()) {
+            if (entry.getValue().type == COMMIT) {
+                result.add(entry.getKey());
+            }
+        }
+        for (PackFile pack : packs()) {
+            result.addAll(pack.ids(COMMIT));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the ids of all objects in this store, loose or packed. */
+    private List<String> objectIds() {
+        List<String> result = new ArrayList<>(pending.keySet());
+        for (File dir : new File[] {commitDir, treeDir, blobDir, compressedDir, chunkedDir,
+                                    deltaDir}) {
+            result.addAll(listLoose(dir));
+        }
+        for (PackFile pack : packs()) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                result.add(pack.idAt(i));
+            }
+        }
+        return result;
+    }
+
+    /** Returns all commits in this store, in order of id. */
+    private List<Commit> commits() {
+        List<Commit> result = new ArrayList<>();
+        for (String id : commitIds()) {
+            result.add(readCommit(id));
+        }
+        return result;
+    }
+
+    /** Moves every loose object and every existing pack into one new pack,
+     *  or several if it would exceed PackFile.MAX_SIZE, then removes the
+     *  loose files and the old packs, once the new packs are on disk.
+     *  Legacy large loose blobs are left loose, and whole blobs are
+     *  compressed with the current codec.  Commits still in the old
+     *  Java-serialized form are rewritten in the binary encoding, keeping
+     *  their ids.  Chunk lists are packed along with their chunks.  Packs
+     *  left without an index by an interrupted write are deleted. */
+    void gc() {
+        checkWritable();
+        sync();
+        List<String> names = listLoose(packDir);
+        for (String name : names) {
+            if (name.endsWith(".tmp") || name.endsWith(".pack")
+                && !names.contains(name.replaceFirst("\\.pack$", ".idx"))) {
+                join(packDir, name).delete();
+            }
+        }
+        List<PackFile> oldPacks = packs();
+        List<String> looseCommits = listLoose(commitDir);
+        List<String> looseBlobs = new ArrayList<>();
+        for (String id : listLoose(blobDir)) {
+            if (join(blobDir, id).length() < LARGE_BLOB) {
+                looseBlobs.add(id);
+            }
+        }
+        List<String> looseCompressed = listLoose(compressedDir);
+        List<String> looseChunked = listLoose(chunkedDir);
+        List<String> looseDeltas = listLoose(deltaDir);
+        List<String> looseTrees = listLoose(treeDir);
+        if (looseCommits.isEmpty() && looseBlobs.isEmpty() && looseCompressed.isEmpty()
+            && looseChunked.isEmpty() && looseDeltas.isEmpty() && looseTrees.isEmpty()
+            && oldPacks.size() <= 1) {
+            return;
+        }
+
+        TreeMap<String, PackFile.Entry> objects = new TreeMap<>();
+        for (PackFile pack : oldPacks) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                byte[] contents = pack.contentsAt(i);
+                if (pack.typeAt(i) == COMMIT && !Commit.isEncoded(contents)) {
+                    contents = readCommit(pack.idAt(i)).encode();
+                }
+                if (pack.typeAt(i) == BLOB) {
+                    objects.put(pack.idAt(i), blobEntry(contents));
+                } else {
+                    objects.put(pack.idAt(i), new PackFile.Entry(pack.typeAt(i), contents));
+                }
+            }
+        }
+        for (String id : looseCommits) {
+            objects.put(id, new PackFile.Entry(COMMIT, readCommit(id).encode()));
+        }
+        for (String id : looseBlobs) {
+            objects.put(id, blobEntry(readContents(join(blobDir, id))));
+        }
+        for (String id : looseCompressed) {
+            objects.put(id, new PackFile.Entry(COMPRESSED,
+                    readContents(join(compressedDir, id))));
+        }
+        for (String id : looseChunked) {
+            objects.put(id, new PackFile.Entry(CHUNKED, readContents(join(chunkedDir, id))));
+        }
+        for (String id : looseDeltas) {
+            objects.put(id, new PackFile.Entry(DELTA, readContents(join(deltaDir, id))));
+        }
+        for (String id : looseTrees) {
+            objects.put(id, new PackFile.Entry(TREE, readContents(join(treeDir, id))));
+        }
+
+        packDir.mkdir();
+        deletePacks(oldPacks, PackFile.write(packDir, objects));
+        for (String id : looseCommits) {
+            join(commitDir, id).delete();
+        }
+        for (String id : looseBlobs) {
+            join(blobDir, id).delete();
+        }
+        for (String id : looseCompressed) {
+            join(compressedDir, id).delete();
+        }
+        for (String id : looseChunked) {
+            join(chunkedDir, id).delete();
+        }
+        for (String id : looseDeltas) {
+            join(deltaDir, id).delete();
+        }
+        for (String id : looseTrees) {
+            join(treeDir, id).delete();
+        }
+        packs = null;
+        filter.rebuild();
+    }
+
+    /** Returns the pack entry for a blob with contents CONTENTS, which is
+     *  compressed if that makes it smaller. */
+    private PackFile.Entry blobEntry(byte[] contents) {
+        byte[] compressed = compress(contents);
+        return compressed == null ? new PackFile.Entry(BLOB, contents)
+                : new PackFile.Entry(COMPRESSED, compressed);
+    }
+
+    /** Returns true iff an object ID of type TYPE is stored here. */
+    private boolean has(String id, byte type) {
+        PackFile.Entry entry = pending.get(id);
+        if (entry != null && entry.type == type) {
+            return true;
+        }
+        if (!readOnly && !filter.mightContain(id)) {
+            return false;
+        }
+        if (join(looseDir(type), id).isFile()) {
+            return true;
+        }
+        for (PackFile pack : packs()) {
+            if (pack.contains(id, type)) {
+                return true;
+            }
+        }
+        return reloadPacks() && has(id, type);
+    }
+
+    /** Returns the stored bytes of object ID of type TYPE, or null. */
+    private byte[] read(String id, byte type) {
+        PackFile.Entry entry = pending.get(id);
+        if (entry != null && entry.type == type) {
+            return entry.contents;
+        }
+        if (!readOnly && !filter.mightContain(id)) {
+            return null;
+        }
+        File loose = join(looseDir(type), id);
+        if (loose.isFile()) {
+            return readContents(loose);
+        }
+        for (PackFile pack : packs()) {
+            byte[] contents = pack.read(id, type);
+            if (contents != null) {
+                return contents;
+            }
+        }
+        return reloadPacks() ? read(id, type) : null;
+    }
+
+    /** Returns the number of deltas that must be applied to reconstruct
+     *  blob ID: 0 if it is stored whole, and -1 if it is not stored here. */
+    private int deltaDepth(String id) {
+        if (has(id, BLOB) || has(id, COMPRESSED)) {
+            return 0;
+        }
+        byte[] delta = read(id, DELTA);
+        return delta == null ? -1 : delta[UID_LENGTH];
+    }
+
+    /** Returns the directory holding loose objects of type TYPE. */
+    private File looseDir(byte type) {
+        switch (type) {
+            case COMMIT:
+                return commitDir;
+            case DELTA:
+                return deltaDir;
+            case TREE:
+                return treeDir;
+            case COMPRESSED:
+                return compressedDir;
+            case CHUNKED:
+                return chunkedDir;
+            default:
+                return blobDir;
+        }
+    }
+
+    /** Returns the packs of this store, opening them if needed. */
+    private synchronized List<PackFile> packs() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            for (String name : packIndexNames()) {
+                packs.add(new PackFile(join(packDir, name)));
+            }
+        }
+        return packs;
+    }
+
+    /** Opens the packs again if another store has written or merged packs
+     *  since they were opened, and returns true iff it had.  Called when
+     *  an object the filter may hold is in none of the packs. */
+    private synchronized boolean reloadPacks() {
+        Set<String> names = new HashSet<>();
+        for (PackFile pack : packs()) {
+            names.add(pack.files()[1].getName());
+        }
+        if (names.equals(new HashSet<>(packIndexNames()))) {
+            return false;
+        }
+        packs = null;
+        return true;
+    }
+
+    /** Returns the names of the pack indexes in the pack directory. */
+    private List<String> packIndexNames() {
+        List<String> result = new ArrayList<>();
+        for (String name : listLoose(packDir)) {
+            if (name.endsWith(".idx")) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the names of the loose objects in DIR. */
+    private static List<String> listLoose(File dir) {
+        List<String> names = plainFilenamesIn(dir);
+        return names == null ? new ArrayList<>() : names;
+    }
+}
@@ -0,0 +1,330 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** A read-only pack of gitlet objects.  A pack is a pair of files:
+ *  pack-NAME.pack holds the objects back to back, each as a type byte,
+ *  a length and the raw bytes, and pack-NAME.idx holds a 256-entry
+ *  fan-out table followed by the sorted binary SHA-1 ids, the type of
+ *  each object and its offset in the pack.  Both files are memory-mapped,
+ *  the pack only once an object is read from it, so a lookup is a binary
+ *  search over the index and a single slice of the pack; a pack is
+ *  therefore kept under MAX_SIZE bytes, and write
+ *  splits larger sets of objects across several packs.  A pack is found
+ *  through its index, which is written under a temporary name and renamed
+ *  only once both files are forced to disk, so a pack is only ever seen
+ *  complete.
+ *  @author Zhang Yusen
+ */
+class PackFile {
+
+    /** Magic number at the start of every .pack file. */
+    private static final int PACK_MAGIC = 0x47504b31;
+    /** Magic number at the start of every .idx file. */
+    private static final int IDX_MAGIC = 0x47494431;
+    /** Size of the index header: magic, count, and the fan-out table. */
+    private static final int IDX_HEADER = 8 + 256 * 4;
+    /** Length of a binary SHA-1 id. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    /** Largest size of a .pack file, the most a single mapping can hold. */
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+    /** Size of the pack header and of the header of each object. */
+    private static final int PACK_HEADER = 8;
+    private static final int ENTRY_HEADER = 5;
+
+    /** The .pack file. */
+    private final File packFile;
+    /** The .idx file. */
+    private final File idxFile;
+    /** Mapped contents of the pack, or null until first needed. */
+    private MappedByteBuffer pack;
+    /** Mapped contents of the index. */
+    private final MappedByteBuffer idx;
+    /** Number of objects in this pack. */
+    private final int count;
+
+    /** Opens the pack whose index is IDXFILE. */
+    PackFile(File idxFile) {
+        this.idxFile = idxFile;
+        String name = idxFile.getName();
+        this.packFile = new File(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        this.idx = map(idxFile);
+        if (idx.getInt(0) != IDX_MAGIC) {
+            throw error("Corrupt pack: %s", name);
+        }
+        this.count = idx.getInt(4);
+    }
+
+    /** Returns the mapped contents of the pack, mapping it if needed. */
+    private synchronized MappedByteBuffer pack() {
+        if (pack == null) {
+            pack = map(packFile);
+            if (pack.getInt(0) != PACK_MAGIC) {
+                throw error("Corrupt pack: %s", packFile.getName());
+            }
+        }
+        return pack;
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the .pack and .idx files backing this pack. */
+    File[] files() {
+        return new File[] {packFile, idxFile};
+    }
+
+    /** Returns true iff this pack holds an object with id ID and type TYPE. */
+    boolean contains(String id, byte type) {
+        int i = find(id);
+        return i >= 0 && typeAt(i) == type;
+    }
+
+    /** Returns the contents of object ID of type TYPE, or null if this pack
+     *  does not hold it. */
+    byte[] read(String id, byte type) {
+        int i = find(id);
+        if (i < 0 || typeAt(i) != type) {
+            return null;
+        }
+        return readAt(offsetAt(i));
+    }
+
+    /** Returns a read-only view of the contents of object ID of type TYPE
+     *  within the mapped pack, or null if this pack does not hold it. */
+    ByteBuffer slice(String id, byte type) {
+        int i = find(id);
+        if (i < 0 || typeAt(i) != type) {
+            return null;
+        }
+        long start = Trace.start();
+        int pos = (int) offsetAt(i);
+        MappedByteBuffer pack = pack();
+        int length = pack.getInt(pos + 1);
+        ByteBuffer result = pack.duplicate().position(pos + ENTRY_HEADER)
+                .limit(pos + ENTRY_HEADER + length).slice();
+        Trace.record(Trace.Op.READ_PACK, length, start);
+        return result;
+    }
+
+    /** Returns the hex ids of every object of type TYPE in this pack, in
+     *  sorted order. */
+    List<String> ids(byte type) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < count; i += 1) {
+            if (typeAt(i) == type) {
+                result.add(idAt(i));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the type of the I-th object in index order. */
+    byte typeAt(int i) {
+        return idx.get(IDX_HEADER + count * ID_BYTES + i);
+    }
+
+    /** Returns the hex id of the I-th object in index order. */
+    String idAt(int i) {
+        byte[] id = new byte[ID_BYTES];
+        idx.get(IDX_HEADER + i * ID_BYTES, id);
+        return bytesToUid(id, 0);
+    }
+
+    /** Returns the contents of the I-th object in index order. */
+    byte[] contentsAt(int i) {
+        return readAt(offsetAt(i));
+    }
+
+    /** Returns the index of object ID in this pack, or -1. */
+    private int find(String id) {
+        if (id.length() != UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = uidToBytes(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : idx.getInt(8 + (first - 1) * 4);
+        int hi = idx.getInt(8 + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the id of the I-th object with KEY. */
+    private int compareAt(int i, byte[] key) {
+        int base = IDX_HEADER + i * ID_BYTES;
+        for (int k = 0; k < ID_BYTES; k += 1) {
+            int cmp = Integer.compare(idx.get(base + k) & 0xff, key[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the pack offset of the I-th object. */
+    private long offsetAt(int i) {
+        return idx.getLong(IDX_HEADER + count * (ID_BYTES + 1) + i * 8);
+    }
+
+    /** Returns the object stored at OFFSET in the pack. */
+    private byte[] readAt(long offset) {
+        long start = Trace.start();
+        int pos = (int) offset;
+        MappedByteBuffer pack = pack();
+        int length = pack.getInt(pos + 1);
+        byte[] result = new byte[length];
+        pack.get(pos + ENTRY_HEADER, result);
+        Trace.record(Trace.Op.READ_PACK, length, start);
+        return result;
+    }
+
+    /** Writes OBJECTS, a map from hex id to (type, contents), as new packs
+     *  in directory DIR, as few as keep each under MAX_SIZE, and returns
+     *  them. */
+    static List<PackFile> write(File dir, SortedMap<String, Entry> objects) {
+        List<PackFile> result = new ArrayList<>();
+        TreeMap<String, Entry> part = new TreeMap<>();
+        long size = PACK_HEADER;
+        for (Map.Entry<String, Entry> e : objects.entrySet()) {
+            long length = ENTRY_HEADER + e.getValue().contents.length;
+            if (PACK_HEADER + length > MAX_SIZE) {
+                throw error("Object %s is too large to pack.", e.getKey());
+            }
+            if (size + length > MAX_SIZE) {
+                result.add(writeOne(dir, part));
+                part = new TreeMap<>();
+                size = PACK_HEADER;
+            }
+            part.put(e.getKey(), e.getValue());
+            size += length;
+        }
+        if (!part.isEmpty() || result.isEmpty()) {
+            result.add(writeOne(dir, part));
+        }
+        sync(dir);
+        return result;
+    }
+
+    /** Writes OBJECTS, which fit in MAX_SIZE, as one new pack in directory
+     *  DIR and returns it. */
+    private static PackFile writeOne(File dir, SortedMap<String, Entry> objects) {
+        StringBuilder allIds = new StringBuilder();
+        for (String id : objects.keySet()) {
+            allIds.append(id);
+        }
+        String name = "pack-" + sha1(allIds.toString());
+        File packFile = join(dir, name + ".pack");
+        File idxFile = join(dir, name + ".idx");
+        File idxTemp = join(dir, name + ".idx.tmp");
+        int n = objects.size();
+        long[] offsets = new long[n];
+        int[] fanout = new int[256];
+        long start = Trace.start();
+        long offset = PACK_HEADER;
+        try (FileOutputStream stream = new FileOutputStream(packFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(n);
+            int i = 0;
+            for (Map.Entry<String, Entry> e : objects.entrySet()) {
+                offsets[i] = offset;
+                byte[] contents = e.getValue().contents;
+                out.writeByte(e.getValue().type);
+                out.writeInt(contents.length);
+                out.write(contents);
+                offset += ENTRY_HEADER + contents.length;
+                fanout[Integer.parseInt(e.getKey().substring(0, 2), 16)] += 1;
+                i += 1;
+            }
+            out.flush();
+            stream.getFD().sync();
+        } catch (IOException excp) {
+            packFile.delete();
+            throw error("Cannot write pack: %s", excp.getMessage());
+        }
+        try (FileOutputStream stream = new FileOutputStream(idxTemp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(IDX_MAGIC);
+            out.writeInt(n);
+            int total = 0;
+            for (int b = 0; b < 256; b += 1) {
+                total += fanout[b];
+                out.writeInt(total);
+            }
+            for (String id : objects.keySet()) {
+                out.write(uidToBytes(id));
+            }
+            for (Entry e : objects.values()) {
+                out.writeByte(e.type);
+            }
+            for (long o : offsets) {
+                out.writeLong(o);
+            }
+            out.flush();
+            stream.getFD().sync();
+            Trace.record(Trace.Op.WRITE_CONTENTS, offset + out.size(), start);
+        } catch (IOException excp) {
+            idxTemp.delete();
+            throw error("Cannot write pack index: %s", excp.getMessage());
+        }
+        if (!idxTemp.renameTo(idxFile)) {
+            throw error("Cannot write pack %s.", name);
+        }
+        return new PackFile(idxFile);
+    }
+
+    /** An object waiting to be written into a pack. */
+    static class Entry {
+        /** The object type, one of the ObjectStore type codes. */
+        final byte type;
+        /** The stored bytes of the object. */
+        final byte[] contents;
+
+        Entry(byte type, byte[] contents) {
+            this.type = type;
+            this.contents = contents;
+        }
+    }
+
+    /** Memory-maps FILE read-only. */
+    private static MappedByteBuffer map(File file) {
+        long start = Trace.start();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer result = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                                  channel.size());
+            Trace.record(Trace.Op.MAP, channel.size(), start);
+            return result;
+        } catch (IOException excp) {
+            throw error("Cannot open pack: %s", excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** The branches of one .gitlet directory, and the history of where they
+ *  and HEAD have pointed.  A branch is either loose, a file under
+ *  branches/ holding its commit id, or packed, a line of packed-refs;
+ *  a loose branch overrides a packed one of the same name.  gc moves
+ *  every loose branch into packed-refs, so that listing the branches of
+ *  a repository with many of them is one sequential read.
+ *
+ *  Each move of a branch or of HEAD is appended to its reflog, under
+ *  logs/HEAD or logs/branches/NAME, as a line holding the old and new
+ *  commit ids, the time, and a description of the move.
+ *  @author Zhang Yusen
+ */
+class Refs {
+
+    /** Id recorded as the old value of a newly created ref. */
+    static final String NO_COMMIT = "0".repeat(UID_LENGTH);
+
+    /** Directory of loose branches. */
+    private final File branchDir;
+    /** The packed-refs file. */
+    private final File packedFile;
+    /** Directory of reflogs. */
+    private final File logDir;
+    /** Packed branches by name, read on first use. */
+    private TreeMap<String, String> packed;
+
+    /** The branches of the .gitlet directory GITLETDIR. */
+    Refs(File gitletDir) {
+        this.branchDir = join(gitletDir, "branches");
+        this.packedFile = join(gitletDir, "packed-refs");
+        this.logDir = join(gitletDir, "logs");
+    }
+
+    /** Returns the commit id of branch NAME, or null if there is none. */
+    String get(String name) {
+        File loose = file(name);
+        if (loose.isFile()) {
+            return readContentsAsString(loose);
+        }
+        return packed().get(name);
+    }
+
+    /** Returns true iff branch NAME exists. */
+    boolean exists(String name) {
+        return file(name).isFile() || packed().containsKey(name);
+    }
+
+    /** Returns the loose file of branch NAME, to which a new commit id for
+     *  the branch is written. */
+    File file(String name) {
+        return join(branchDir, name);
+    }
+
+    /** Returns every branch, including remote-tracking ones, as a sorted
+     *  map from name to commit id. */
+    TreeMap<String, String> branches() {
+        TreeMap<String, String> result = new TreeMap<>(packed());
+        addLoose(branchDir, "", result);
+        return result;
+    }
+
+    /** Deletes branch NAME and its reflog. */
+    void delete(String name) {
+        file(name).delete();
+        if (packed().remove(name) != null) {
+            writePacked(packed);
+        }
+        join(logDir, "branches", name).delete();
+    }
+
+    /** Moves every loose branch into packed-refs. */
+    void pack() {
+        TreeMap<String, String> all = branches();
+        TreeMap<String, String> loose = new TreeMap<>();
+        addLoose(branchDir, "", loose);
+        if (loose.isEmpty()) {
+            return;
+        }
+        writePacked(all);
+        for (String name : loose.keySet()) {
+            file(name).delete();
+        }
+        packed = all;
+    }
+
+    /** Records in the reflog of REF, which is "HEAD" or a branch name, that
+     *  it moved from OLDID (null if it is new) to NEWID because of
+     *  MESSAGE. */
+    void log(String ref, String oldId, String newId, String message) {
+        File log = logFile(ref);
+        log.getParentFile().mkdirs();
+        String line = String.format("%s %s %d %s%n", oldId == null ? NO_COMMIT : oldId,
+                                    newId, System.currentTimeMillis(), message);
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        long start = Trace.start();
+        try (FileOutputStream out = new FileOutputStream(log, true)) {
+            out.write(bytes);
+            Trace.record(Trace.Op.WRITE_CONTENTS, bytes.length, start);
+        } catch (IOException excp) {
+            throw error("Cannot write reflog: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the reflog of REF, oldest first, as arrays holding the old
+     *  id, the new id, the time in milliseconds and the message. */
+    List<String[]> reflog(String ref) {
+        List<String[]> result = new ArrayList<>();
+        File log = logFile(ref);
+        if (!log.isFile()) {
+            return result;
+        }
+        for (String line : readContentsAsString(log).split("\n")) {
+            String[] fields = line.split(" ", 4);
+            if (fields.length == 4) {
+                result.add(fields);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the reflog file of REF. */
+    private File logFile(String ref) {
+        return ref.equals("HEAD") ? join(logDir, "HEAD") : join(logDir, "branches", ref);
+    }
+
+    /** Returns the packed branches, reading them if needed. */
+    private TreeMap<String, String> packed() {
+        if (packed == null) {
+            packed = new TreeMap<>();
+            if (packedFile.isFile()) {
+                for (String line : readContentsAsString(packedFile).split("\n")) {
+                    int space = line.indexOf(' ');
+                    if (space == UID_LENGTH) {
+                        packed.put(line.substring(space + 1), line.substring(0, space));
+                    }
+                }
+            }
+        }
+        return packed;
+    }
+
+    /** Replaces packed-refs with BRANCHES. */
+    private void writePacked(TreeMap<String, String> branches) {
+        StringBuilder contents = new StringBuilder();
+        for (Map.Entry<String, String> branch : branches.entrySet()) {
+            contents.append(branch.getValue()).append(' ').append(branch.getKey()).append('\n');
+        }
+        File temp = new File(packedFile.getPath() + ".tmp");
+        writeContents(temp, contents.toString());
+        if (!temp.renameTo(packedFile)) {
+            throw error("Cannot write packed-refs.");
+        }
+    }
+
+    /** Adds the loose branches under DIR, whose names start with PREFIX,
+     *  to RESULT. */
+    private static void addLoose(File dir, String prefix, Map<String, String> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addLoose(file, prefix + file.getName() + "/", result);
+            } else {
+                result.put(prefix + file.getName(), readContentsAsString(file));
+            }
+        }
+    }
+}
@@ -1,7 +1,17 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import static gitlet.Utils.*;
 
 
@@ -26,6 +36,32 @@ public class Repository {
     public static final File CURRENT_BRANCH = join(GITLET_DIR, "current_branch");
     public static final File REMOVAL_AREA = join(GITLET_DIR, "removal");
     public static final File REMOTES = join(GITLET_DIR, "remotes");
+    public static final File PACK_DIR = join(GITLET_DIR, "packs");
+    public static final File INDEX = join(GITLET_DIR, "index");
+    public static final File COMMIT_GRAPH = join(GITLET_DIR, "commit-graph");
+    public static final File CONFIG = join(GITLET_DIR, "config");
+    public static final File SHALLOW = join(GITLET_DIR, "shallow");
+
+    private final ObjectStore objects = new ObjectStore(GITLET_DIR);
+    private final Index index = new Index(INDEX);
+    private CommitGraph graph = new CommitGraph(COMMIT_GRAPH, objects);
+    private final Refs refs = new Refs(GITLET_DIR);
+
+    /** Workers that write files during checkout and reset. */
+    private static final ForkJoinPool CHECKOUT_POOL =
+        new ForkJoinPool(Math.min(8, Runtime.getRuntime().availableProcessors()));
+    /** Counts of the working files written and deleted by the last
+     *  checkout of a branch or reset. */
+    private final AtomicInteger filesWritten = new AtomicInteger();
+    private final AtomicInteger filesDeleted = new AtomicInteger();
+
+    /** A repository in the current directory.  Finishes any update of its
+     *  refs and staging area that a crash interrupted. */
+    public Repository() {
+        if (GITLET_DIR.isDirectory()) {
+            Journal.recover(GITLET_DIR);
+        }
+    }
 
     public static void setupPersistence() {
         if (GITLET_DIR.exists()) {
@@ -38,19 +74,27 @@ public class Repository {
         BLOB_DIR.mkdir();
         BRANCHES.mkdir();
         REMOTES.mkdir();
+        PACK_DIR.mkdir();
+        new Config(CONFIG).set(Config.COMPRESSION, Codec.DEFLATE.name());
 
+        ObjectStore initialObjects = new ObjectStore(GITLET_DIR);
         Commit initialCommit = new Commit("initial commit", null);
-        String commitId = sha1(serialize(initialCommit));
+        initialCommit.setTree(initialObjects.writeTree(null, new HashMap<>()), initialObjects);
+        String commitId = sha1(initialCommit.encode());
         initialCommit.setId(commitId);
 
-        File commitFile = join(COMMIT_DIR, commitId);
-        writeObject(commitFile, initialCommit);
+        initialObjects.writeCommit(initialCommit);
+        initialObjects.sync();
 
         File masterBranch = join(BRANCHES, "master");
         writeContents(masterBranch, commitId);
 
         writeContents(HEAD, commitId);
 
+        Refs initialRefs = new Refs(GITLET_DIR);
+        initialRefs.log("master", null, commitId, "commit (initial): initial commit");
+        initialRefs.log("HEAD", null, commitId, "commit (initial): initial commit");
+
         writeContents(CURRENT_BRANCH, "master");
 
         HashMap<String, String> stagingArea = new HashMap<>();
@@ -61,41 +105,72 @@ public class Repository {
     }
 
     public void add(String filePath) {
-        File file = join(CWD, filePath);
-        if (!file.exists()) {
-            System.out.println("File does not exist.");
-            return;
+        add(Collections.singletonList(filePath));
+    }
+
+    /** Stages every file in PATHS, descending into directories.  Files are
+     *  hashed, and new blobs written, in parallel; the staging area is
+     *  read and written only once. */
+    public void add(List<String> paths) {
+        List<String> filePaths = new ArrayList<>();
+        for (String path : paths) {
+            File file = join(CWD, path);
+            if (!file.exists()) {
+                System.out.println("File does not exist.");
+                return;
+            }
+            if (file.isDirectory()) {
+                filePaths.addAll(new WorkTree(CWD).files(file));
+            } else {
+                filePaths.add(path);
+            }
         }
 
+        Trace.phase("hash files");
         HashMap<String, String> stagingArea = readObject(STAGING_AREA, HashMap.class);
 
         HashMap<String, Boolean> removalArea = readObject(REMOVAL_AREA, HashMap.class);
 
-        byte[] contents = readContents(file);
-        String blobId = sha1(contents);
-
         String currentCommitId = readContentsAsString(HEAD);
-        File currentCommitFile = join(COMMIT_DIR, currentCommitId);
-        Commit currentCommit = readObject(currentCommitFile, Commit.class);
+        Commit currentCommit = objects.readCommit(currentCommitId);
 
         HashMap<String, String> currentBlobs = currentCommit.getBlobs();
         if (currentBlobs == null) {
             currentBlobs = new HashMap<>();
         }
-
-        //check if file is already in current commit
-        if (currentBlobs.containsKey(filePath) && currentBlobs.get(filePath).equals(blobId)) {
-            stagingArea.remove(filePath);
-            removalArea.remove(filePath);
-        } else {
-            stagingArea.put(filePath, blobId);
-            File blobFile = join(BLOB_DIR, blobId);
-            writeContents(blobFile, contents);
-            removalArea.remove(filePath);
+        final HashMap<String, String> headBlobs = currentBlobs;
+
+        Map<String, String> blobIds = new ConcurrentHashMap<>();
+        Set<String> written = ConcurrentHashMap.newKeySet();
+        filePaths.parallelStream().forEach(filePath -> {
+            File file = join(CWD, filePath);
+            String blobId = index.blobId(file, filePath);
+            blobIds.put(filePath, blobId);
+            if (!blobId.equals(headBlobs.get(filePath)) && written.add(blobId)
+                && !objects.hasBlob(blobId)) {
+                objects.writeBlob(blobId, file, headBlobs.get(filePath));
+            }
+        });
+
+        boolean unremoved = false;
+        for (String filePath : filePaths) {
+            String blobId = blobIds.get(filePath);
+            //check if file is already in current commit
+            if (blobId.equals(currentBlobs.get(filePath))) {
+                stagingArea.remove(filePath);
+            } else {
+                stagingArea.put(filePath, blobId);
+            }
+            unremoved |= removalArea.remove(filePath) != null;
         }
 
-        writeObject(STAGING_AREA, stagingArea);
-        writeObject(REMOVAL_AREA, removalArea);
+        Trace.phase("update staging area");
+        Journal journal = new Journal(GITLET_DIR, objects).writeObject(STAGING_AREA, stagingArea);
+        if (unremoved) {
+            journal.writeObject(REMOVAL_AREA, removalArea);
+        }
+        journal.commit();
+        index.save();
     }
 
     public void commit(String commitMessage) {
@@ -114,54 +189,50 @@ public class Repository {
 
 
         String currentCommitId = readContentsAsString(HEAD);
-        File currentCommitFile = join(COMMIT_DIR, currentCommitId);
-        Commit currentCommit = readObject(currentCommitFile, Commit.class);
+        Commit currentCommit = objects.readCommit(currentCommitId);
 
         Commit newCommit = new Commit(commitMessage, currentCommitId);
 
-        HashMap<String, String> currentBlobs = currentCommit.getBlobs();
-        if (currentBlobs == null) {
-            currentBlobs = new HashMap<>();
-        }
-
-        HashMap<String, String> newBlobs = new HashMap<>(currentBlobs);
-
-        for (String file : stagingArea.keySet()) {
-            newBlobs.put(file, stagingArea.get(file));
-        }
-
+        HashMap<String, String> changes = new HashMap<>(stagingArea);
         for (String file : removalArea.keySet()) {
-            newBlobs.remove(file);
+            changes.put(file, null);
         }
 
-        newCommit.setBlobs(newBlobs);
+        Trace.phase("write tree");
+        newCommit.setTree(objects.writeTree(currentCommit, changes), objects);
 
-        String newCommitId = sha1(serialize(newCommit));
+        Trace.phase("write commit");
+        String newCommitId = sha1(newCommit.encode());
         newCommit.setId(newCommitId);
 
-        File newCommitFile = join(COMMIT_DIR, newCommitId);
-        writeObject(newCommitFile, newCommit);
-
-        writeContents(HEAD, newCommitId);
+        objects.writeCommit(newCommit);
+        graph.add(newCommit);
+        graph.save();
 
         String currentBranch = readContentsAsString(CURRENT_BRANCH);
-        File branchFile = join(BRANCHES, currentBranch);
-        writeContents(branchFile, newCommitId);
-
-        stagingArea.clear();
-        writeObject(STAGING_AREA, stagingArea);
-
-        removalArea.clear();
-        writeObject(REMOVAL_AREA, removalArea);
+        File branchFile = refs.file(currentBranch);
+        Journal journal = new Journal(GITLET_DIR, objects).write(HEAD, newCommitId)
+                .write(branchFile, newCommitId);
+        if (!stagingArea.isEmpty()) {
+            stagingArea.clear();
+            journal.writeObject(STAGING_AREA, stagingArea);
+        }
+        if (!removalArea.isEmpty()) {
+            removalArea.clear();
+            journal.writeObject(REMOVAL_AREA, removalArea);
+        }
+        journal.commit();
+        logMove(currentBranch, currentCommitId, newCommitId, "commit: " + commitMessage);
 
     }
 
     public void status() {
         System.out.println("=== Branches ===");
         String currentBranch = readContentsAsString(CURRENT_BRANCH);
-        List<String> branches = plainFilenamesIn(BRANCHES);
-        Collections.sort(branches);
-        for (String branch : branches) {
+        for (String branch : refs.branches().keySet()) {
+            if (branch.contains("/")) {
+                continue;
+            }
             if (branch.equals(currentBranch)) {
                 System.out.println("*" + branch);
             } else {
@@ -169,8 +240,15 @@ public class Repository {
             }
         }
 
+        Trace.phase("staging area");
         System.out.println("\n=== Staged Files ===");
         HashMap<String, String> stagingArea = readObject(STAGING_AREA, HashMap.class);
+        HashMap<String, Boolean> removalArea = readObject(REMOVAL_AREA, HashMap.class);
+        HashMap<String, String> currentBlobs = objects.readCommit(readContentsAsString(HEAD))
+                .getBlobs();
+        if (currentBlobs == null) {
+            currentBlobs = new HashMap<>();
+        }
         List<String> stagedFiles = new ArrayList<>(stagingArea.keySet());
         Collections.sort(stagedFiles);
         for (String file : stagedFiles) {
@@ -178,67 +256,55 @@ public class Repository {
         }
 
         System.out.println("\n=== Removed Files ===");
-        HashMap<String, Boolean> removalArea = readObject(REMOVAL_AREA, HashMap.class);
         List<String> removalFiles = new ArrayList<>(removalArea.keySet());
         Collections.sort(removalFiles);
         for (String file : removalFiles) {
             System.out.println(file);
         }
 
+        Trace.phase("modifications");
         System.out.println("\n=== Modifications Not Staged For Commit ===");
-        List<String> modifications = getModificationsNotStaged();
+        List<String> modifications = getModificationsNotStaged(stagingArea, removalArea,
+                currentBlobs);
         Collections.sort(modifications);
         for (String file : modifications) {
             System.out.println(file);
         }
 
+        Trace.phase("untracked files");
         System.out.println("\n=== Untracked Files ===");
-        List<String> untrackedFiles = getUntrackedFiles();
+        List<String> untrackedFiles = getUntrackedFiles(stagingArea, removalArea, currentBlobs);
         Collections.sort(untrackedFiles);
         for (String file : untrackedFiles) {
             System.out.println(file);
         }
+        index.save();
     }
 
-    private List<String> getModificationsNotStaged() {
+    private List<String> getModificationsNotStaged(HashMap<String, String> stagingArea,
+                                                   HashMap<String, Boolean> removalArea,
+                                                   HashMap<String, String> currentBlobs) {
         List<String> modifications = new ArrayList<>();
 
-        HashMap<String, String> stagingArea = readObject(STAGING_AREA, HashMap.class);
-        HashMap<String, Boolean> removalArea = readObject(REMOVAL_AREA, HashMap.class);
-
-        String currentCommitId = readContentsAsString(HEAD);
-        File currentCommitFile = join(COMMIT_DIR, currentCommitId);
-        Commit currentCommit = readObject(currentCommitFile, Commit.class);
-        HashMap<String, String> currentBlobs = currentCommit.getBlobs();
-        if (currentBlobs == null) {
-            currentBlobs = new HashMap<>();
-        }
-        List<String> workingDirFiles = plainFilenamesIn(CWD);
-        HashSet<String> workingDirSet = new HashSet<>();
-        if (workingDirSet != null) {
-            workingDirSet.addAll(workingDirFiles);
-        }
         HashSet<String> allTrackedFiles = new HashSet<>();
         allTrackedFiles.addAll(currentBlobs.keySet());
         allTrackedFiles.addAll(stagingArea.keySet());
         for (String file : allTrackedFiles) {
             File workingFile = join(CWD, file);
+            String workingBlobId = index.blobId(workingFile, file);
             if (currentBlobs.containsKey(file)
-                && !workingFile.exists()
+                && workingBlobId == null
                 && !removalArea.containsKey(file)) {
                 modifications.add(file + " (deleted)");
                 continue;
             }
 
             if (stagingArea.containsKey(file)
-                && !workingFile.exists()) {
+                && workingBlobId == null) {
                 modifications.add(file + " (deleted)");
             }
 
-            if (workingFile.exists()) {
-                byte[] workingContents = readContents(workingFile);
-                String workingBlobId = sha1(workingContents);
-
+            if (workingBlobId != null) {
                 if (stagingArea.containsKey(file)) {
                     String stagedBlobId = stagingArea.get(file);
                     if (!workingBlobId.equals(stagedBlobId)) {
@@ -256,30 +322,11 @@ public class Repository {
         return modifications;
     }
 
-    private List<String> getUntrackedFiles() {
+    private List<String> getUntrackedFiles(HashMap<String, String> stagingArea,
+                                           HashMap<String, Boolean> removalArea,
+                                           HashMap<String, String> currentBlobs) {
         List<String> untrackedFiles = new ArrayList<>();
-        List<String> workingDirFiles = plainFilenamesIn(CWD);
-
-        if (workingDirFiles == null) {
-            return untrackedFiles;
-        }
-
-        HashMap<String, String> stagingArea = readObject(STAGING_AREA, HashMap.class);
-        HashMap<String, Boolean> removalArea = readObject(REMOVAL_AREA, HashMap.class);
-
-        String currentCommitId = readContentsAsString(HEAD);
-        File currentCommitFile = join(COMMIT_DIR, currentCommitId);
-        Commit currentCommit = readObject(currentCommitFile, Commit.class);
-        HashMap<String, String> currentBlobs = currentCommit.getBlobs();
-        if (currentBlobs == null) {
-            currentBlobs = new HashMap<>();
-        }
-
-        for (String file : workingDirFiles) {
-            if (file.equals(".gitlet")) {
-                continue;
-            }
-
+        for (String file : new WorkTree(CWD).files()) {
             if (!currentBlobs.containsKey(file)
                 && !stagingArea.containsKey(file)
                 && !removalArea.containsKey(file)) {
@@ -293,11 +340,10 @@ public class Repository {
     public void log() {
         String commitId = readContentsAsString(HEAD);
         while (commitId != null) {
-            File commitFile = join(COMMIT_DIR, commitId);
-            if (!commitFile.exists()) {
+            Commit commit = objects.readCommit(commitId);
+            if (commit == null) {
                 break;
             }
-            Commit commit = readObject(commitFile, Commit.class);
 
             System.out.println("===");
             System.out.println("commit " + commitId);
@@ -315,8 +361,7 @@ public class Repository {
         HashMap<String, Boolean> removalArea = readObject(REMOVAL_AREA, HashMap.class);
 
         String currentCommitId = readContentsAsString(HEAD);
-        File currentCommitFile = join(COMMIT_DIR, currentCommitId);
-        Commit currentCommit = readObject(currentCommitFile, Commit.class);
+        Commit currentCommit = objects.readCommit(currentCommitId);
 
         boolean staged = stagingArea.containsKey(fileName);
 
@@ -341,9 +386,11 @@ public class Repository {
             if (file.exists()) {
                 file.delete();
             }
+            index.remove(fileName);
         }
-        writeObject(STAGING_AREA, stagingArea);
-        writeObject(REMOVAL_AREA, removalArea);
+        new Journal(GITLET_DIR, objects).writeObject(STAGING_AREA, stagingArea)
+                .writeObject(REMOVAL_AREA, removalArea).commit();
+        index.save();
 
     }
 
@@ -353,33 +400,35 @@ public class Repository {
 
     }
 
+    /** Returns the full id of the commit abbreviated by COMMITID, or null
+     *  after printing an error message if there is no unique such commit. */
+    private String resolveCommitId(String commitId) {
+        if (commitId.length() >= UID_LENGTH) {
+            return commitId;
+        }
+        List<String> matchingCommits = objects.commitIdsWithPrefix(commitId);
+        if (matchingCommits.isEmpty()) {
+            System.out.println("No commit with that id exists.");
+            return null;
+        }
+        if (matchingCommits.size() > 1) {
+            System.out.println("Ambiguous commit id: multiple matches found.");
+            return null;
+        }
+        return matchingCommits.get(0);
+    }
+
     public void checkoutFileFromCommit(String commitId, String fileName) {
-        if (commitId.length() < 40) {
-            List<String> commits = plainFilenamesIn(COMMIT_DIR);
-            List<String> matchingCommits = new ArrayList<>();
-            for (String commit : commits) {
-                if (commit.startsWith(commitId)) {
-                    matchingCommits.add(commit);
-                }
-            }
-            if (matchingCommits.isEmpty()) {
-                System.out.println("No commit with that id exists.");
-                return;
-            }
-            if (matchingCommits.size() > 1) {
-                System.out.println("Ambiguous commit id: multiple matches found.");
-                return;
-            }
-            commitId = matchingCommits.get(0);
+        commitId = resolveCommitId(commitId);
+        if (commitId == null) {
+            return;
         }
-        File commitFile = join(COMMIT_DIR, commitId);
-        if (!commitFile.exists()) {
+        Commit commit = objects.readCommit(commitId);
+        if (commit == null) {
             System.out.println("No commit with that id exists.");
             return;
         }
 
-        Commit commit = readObject(commitFile, Commit.class);
-
         HashMap<String, String> blobs = commit.getBlobs();
         if (blobs == null) {
             blobs = new HashMap<>();
@@ -390,19 +439,20 @@ public class Repository {
             return;
         }
 
-        String blobId = blobs.get(fileName);
-        File blobFile = join(BLOB_DIR, blobId);
-
-        byte[] contents = readContents(blobFile);
+        writeWorkingFile(fileName, blobs.get(fileName));
+        index.save();
+    }
 
+    /** Writes blob BLOBID to working file FILENAME and records it in the
+     *  index, leaving the caller to save the index. */
+    private void writeWorkingFile(String fileName, String blobId) {
         File targetFile = join(CWD, fileName);
-        writeContents(targetFile, contents);
+        objects.writeBlobTo(blobId, targetFile);
+        index.record(targetFile, fileName, blobId);
     }
 
     public void checkoutBranch(String branchName) {
-        File branchFile = join(BRANCHES, branchName);
-
-        if (!branchFile.exists()) {
+        if (!refs.exists(branchName)) {
             System.out.println("No such branch exists.");
             return;
         }
@@ -413,13 +463,11 @@ public class Repository {
             return;
         }
 
-        String commitId = readContentsAsString(branchFile);
-        File commitFile = join(COMMIT_DIR, commitId);
-        Commit targetCommit = readObject(commitFile, Commit.class);
+        String commitId = refs.get(branchName);
+        Commit targetCommit = objects.readCommit(commitId);
 
         String currentCommitId = readContentsAsString(HEAD);
-        File currentCommitFile = join(COMMIT_DIR, currentCommitId);
-        Commit currentCommit = readObject(currentCommitFile, Commit.class);
+        Commit currentCommit = objects.readCommit(currentCommitId);
 
         HashMap<String, String> currentBlobs = currentCommit.getBlobs();
         if (currentBlobs == null) {
@@ -430,8 +478,8 @@ public class Repository {
             targetBlobs = new HashMap<>();
         }
 
-        List<String> workingDirFiles = plainFilenamesIn(CWD);
-        for (String file : workingDirFiles) {
+        Trace.phase("untracked check");
+        for (String file : new WorkTree(CWD).files()) {
             if (!currentBlobs.containsKey(file) && targetBlobs.containsKey(file)) {
                 System.out.println("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
@@ -439,50 +487,83 @@ public class Repository {
             }
         }
 
-        for (String file : currentBlobs.keySet()) {
-            if (!targetBlobs.containsKey(file)) {
+        checkoutFiles(currentCommit, targetCommit);
+
+        HashMap<String, String> stagingArea = new HashMap<>();
+        HashMap<String, Boolean> removalArea = new HashMap<>();
+        new Journal(GITLET_DIR, objects).writeObject(STAGING_AREA, stagingArea)
+                .writeObject(REMOVAL_AREA, removalArea)
+                .write(HEAD, commitId).write(CURRENT_BRANCH, branchName).commit();
+        refs.log("HEAD", currentCommitId, commitId,
+                 "checkout: moving from " + currentBranch + " to " + branchName);
+    }
+
+    /** Makes the working files tracked by CURRENT, the head commit, into
+     *  those of TARGET.  Only paths whose blobs differ between the two
+     *  commits, and those the index has seen change since it was last
+     *  saved, are visited; the ones whose working copies do not already
+     *  hold the target blob are written in parallel on CHECKOUT_POOL. */
+    private void checkoutFiles(Commit current, Commit target) {
+        Trace.phase("checkout files");
+        HashMap<String, String> targetBlobs = target.getBlobs();
+        if (targetBlobs == null) {
+            targetBlobs = new HashMap<>();
+        }
+        final HashMap<String, String> blobs = targetBlobs;
+        filesWritten.set(0);
+        filesDeleted.set(0);
+
+        Set<String> paths = objects.changedPaths(current, target);
+        for (String file : paths) {
+            if (!blobs.containsKey(file)) {
                 File fileToDelete = join(CWD, file);
-                if (fileToDelete.exists()) {
-                    fileToDelete.delete();
+                if (fileToDelete.delete()) {
+                    filesDeleted.incrementAndGet();
                 }
+                index.remove(file);
             }
         }
 
-        for (String file : targetBlobs.keySet()) {
-            String blobId = targetBlobs.get(file);
-            File blobFile = join(BLOB_DIR, blobId);
+        paths.addAll(index.changedPaths());
+        paths.retainAll(blobs.keySet());
+        CHECKOUT_POOL.submit(() -> paths.parallelStream().forEach(file -> {
             File targetFile = join(CWD, file);
+            String blobId = blobs.get(file);
+            if (blobId.equals(index.blobId(targetFile, file))) {
+                return;
+            }
+            objects.writeBlobTo(blobId, targetFile);
+            index.record(targetFile, file, blobId);
+            filesWritten.incrementAndGet();
+        })).join();
+        index.save();
+    }
 
-            byte[] contents = readContents(blobFile);
-            writeContents(targetFile, contents);
-        }
-
-        HashMap<String, String> stagingArea = new HashMap<>();
-        writeObject(STAGING_AREA, stagingArea);
-
-        HashMap<String, Boolean> removalArea = new HashMap<>();
-        writeObject(REMOVAL_AREA, removalArea);
+    /** Returns the number of working files written by the last checkout of
+     *  a branch or reset. */
+    int filesWritten() {
+        return filesWritten.get();
+    }
 
-        writeContents(HEAD, commitId);
-        writeContents(CURRENT_BRANCH, branchName);
+    /** Returns the number of working files deleted by the last checkout of
+     *  a branch or reset. */
+    int filesDeleted() {
+        return filesDeleted.get();
     }
 
     public void branch(String branchName) {
-        File branchFile = join(BRANCHES, branchName);
-
-        if (branchFile.exists()) {
+        if (refs.exists(branchName)) {
             System.out.println("A branch with that name already exists.");
             return;
         }
 
         String currentCommitId = readContentsAsString(HEAD);
-        writeContents(branchFile, currentCommitId);
+        new Journal(GITLET_DIR, objects).write(refs.file(branchName), currentCommitId).commit();
+        refs.log(branchName, null, currentCommitId, "branch: Created from HEAD");
     }
 
     public void reBranch(String branchName) {
-        File branchFile = join(BRANCHES, branchName);
-
-        if (!branchFile.exists()) {
+        if (!refs.exists(branchName)) {
             System.out.println("A branch with that name does not exist.");
             return;
         }
@@ -493,41 +574,24 @@ public class Repository {
             return;
         }
 
-        branchFile.delete();
+        refs.delete(branchName);
     }
 
     public void reset(String commitId) {
-        if (commitId.length() < 40) {
-            List<String> commits = plainFilenamesIn(COMMIT_DIR);
-            List<String> matchingCommits = new ArrayList<>();
-            for (String commit : commits) {
-                if (commit.startsWith(commitId)) {
-                    matchingCommits.add(commit);
-                }
-            }
-            if (matchingCommits.isEmpty()) {
-                System.out.println("No commit with that id exists.");
-                return;
-            }
-            if (matchingCommits.size() > 1) {
-                System.out.println("Ambiguous commit id: multiple matches found.");
-                return;
-            }
-            commitId = matchingCommits.get(0);
+        commitId = resolveCommitId(commitId);
+        if (commitId == null) {
+            return;
         }
 
-        File commitFile = join(COMMIT_DIR, commitId);
+        Commit targetCommit = objects.readCommit(commitId);
 
-        if (!commitFile.exists()) {
+        if (targetCommit == null) {
             System.out.println("No commit with that id exists.");
             return;
         }
 
-        Commit targetCommit = readObject(commitFile, Commit.class);
-
         String currentCommitId = readContentsAsString(HEAD);
-        File currentCommitFile = join(COMMIT_DIR, currentCommitId);
-        Commit currentCommit = readObject(currentCommitFile, Commit.class);
+        Commit currentCommit = objects.readCommit(currentCommitId);
 
         HashMap<String, String> currentBlobs = currentCommit.getBlobs();
         if (currentBlobs == null) {
@@ -538,8 +602,8 @@ public class Repository {
             targetBlobs = new HashMap<>();
         }
 
-        List<String> workingDirFiles = plainFilenamesIn(CWD);
-        for (String file : workingDirFiles) {
+        Trace.phase("untracked check");
+        for (String file : new WorkTree(CWD).files()) {
             if (!currentBlobs.containsKey(file) && targetBlobs.containsKey(file)) {
                 System.out.println("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
@@ -547,82 +611,99 @@ public class Repository {
             }
         }
 
-        for (String file : currentBlobs.keySet()) {
-            if (!targetBlobs.containsKey(file)) {
-                File fileToDelete = join(CWD, file);
-                if (fileToDelete.exists()) {
-                    fileToDelete.delete();
-                }
-            }
-        }
-
-        for (String file : targetBlobs.keySet()) {
-            checkoutFileFromCommit(commitId, file);
-        }
+        checkoutFiles(currentCommit, targetCommit);
 
         HashMap<String, String> stagingArea = new HashMap<>();
-        writeObject(STAGING_AREA, stagingArea);
-
         HashMap<String, Boolean> removalArea = new HashMap<>();
-        writeObject(REMOVAL_AREA, removalArea);
-
-        writeContents(HEAD, commitId);
         String currentBranch = readContentsAsString(CURRENT_BRANCH);
-        File branchFile = join(BRANCHES, currentBranch);
-        writeContents(branchFile, commitId);
+        File branchFile = refs.file(currentBranch);
+        new Journal(GITLET_DIR, objects).writeObject(STAGING_AREA, stagingArea)
+                .writeObject(REMOVAL_AREA, removalArea)
+                .write(HEAD, commitId).write(branchFile, commitId).commit();
+        logMove(currentBranch, currentCommitId, commitId, "reset: moving to " + commitId);
 
     }
 
     public void globalLog() {
-        List<String> commitIds = plainFilenamesIn(COMMIT_DIR);
-
-        for (String commitId : commitIds) {
-            File commitFile = join(COMMIT_DIR, commitId);
-            Commit commit = readObject(commitFile, Commit.class);
-
+        MessageIndex messages = objects.messages();
+        for (int i : sortedById(messages, allRecords(messages))) {
             System.out.println("===");
-            System.out.println("commit " + commitId);
-            System.out.println("Date: " + commit.getTimeStamp());
-            System.out.println(commit.getMessage());
+            System.out.println("commit " + messages.id(i));
+            System.out.println("Date: " + messages.timeStamp(i));
+            System.out.println(messages.message(i));
             System.out.println();
         }
     }
 
     public void find(String message) {
-        List<String> commitIds = plainFilenamesIn(COMMIT_DIR);
-        boolean found = false;
-
-        for (String commitId : commitIds) {
-            File commitFile = join(COMMIT_DIR, commitId);
-            Commit commit = readObject(commitFile, Commit.class);
+        find(message, "exact");
+    }
 
-            if (commit.getMessage().equals(message)) {
-                System.out.println(commitId);
-                found = true;
-            }
+    /** Prints the ids of the commits whose message matches MESSAGE in MODE,
+     *  which is "exact", "substring" or "regex". */
+    public void find(String message, String mode) {
+        MessageIndex messages = objects.messages();
+        List<Integer> matches;
+        switch (mode) {
+            case "substring":
+                matches = messages.findSubstring(message);
+                break;
+            case "regex":
+                try {
+                    matches = messages.findRegex(Pattern.compile(message));
+                } catch (PatternSyntaxException excp) {
+                    System.out.println("Invalid regular expression.");
+                    return;
+                }
+                break;
+            default:
+                matches = messages.findExact(message);
+                break;
         }
 
-        if (!found) {
+        for (int i : sortedById(messages, matches)) {
+            System.out.println(messages.id(i));
+        }
+        if (matches.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
 
+    private List<Integer> allRecords(MessageIndex messages) {
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i += 1) {
+            result.add(i);
+        }
+        return result;
+    }
+
+    private List<Integer> sortedById(MessageIndex messages, List<Integer> records) {
+        List<Integer> result = new ArrayList<>(records);
+        result.sort((a, b) -> messages.id(a).compareTo(messages.id(b)));
+        return result;
+    }
+
     public void merge(String branchName) {
         if (!validateMergePrerequisites(branchName)) {
             return;
         }
         String currentBranch = readContentsAsString(CURRENT_BRANCH);
         String currentCommitId = readContentsAsString(HEAD);
-        String branchCommitId = readContentsAsString(join(BRANCHES, branchName));
+        String branchCommitId = refs.get(branchName);
 
+        Trace.phase("split point");
         String splitPointId = findSplitPoint(currentCommitId, branchCommitId);
+        if (splitPointId == null) {
+            System.out.println("No common ancestor; the history may be shallow.");
+            return;
+        }
         if (handleSpecialCases(splitPointId, branchCommitId, branchName)) {
             return;
         }
 
-        Commit currentCommit = readObject(join(COMMIT_DIR, currentCommitId), Commit.class);
-        Commit branchCommit = readObject(join(COMMIT_DIR, branchCommitId), Commit.class);
-        Commit splitCommit = readObject(join(COMMIT_DIR, splitPointId), Commit.class);
+        Commit currentCommit = objects.readCommit(currentCommitId);
+        Commit branchCommit = objects.readCommit(branchCommitId);
+        Commit splitCommit = objects.readCommit(splitPointId);
 
         HashMap<String, String> currentBlobs = currentCommit.getBlobs() != null
                 ? currentCommit.getBlobs() : new HashMap<>();
@@ -631,17 +712,23 @@ public class Repository {
         HashMap<String, String> splitBlobs = splitCommit.getBlobs() != null
                 ? splitCommit.getBlobs() : new HashMap<>();
 
+        Trace.phase("untracked check");
         if (hasUntrackedConflicts(currentBlobs, branchBlobs)) {
             return;
         }
 
         HashMap<String, String> stagingArea = readObject(STAGING_AREA, HashMap.class);
+        HashMap<String, Boolean> removalArea = new HashMap<>();
 
-        boolean hasConflicts = processMergeChanges(currentBlobs, branchBlobs, splitBlobs,
-                stagingArea, branchCommitId);
+        Trace.phase("merge files");
+        Set<String> changedFiles = objects.changedPaths(splitCommit, currentCommit);
+        changedFiles.addAll(objects.changedPaths(splitCommit, branchCommit));
+        boolean hasConflicts = processMergeChanges(changedFiles, currentBlobs, branchBlobs,
+                splitBlobs, stagingArea, removalArea);
 
-        createMergeCommit(currentCommitId, branchCommitId, currentBranch, branchName,
-                currentBlobs, stagingArea);
+        Trace.phase("merge commit");
+        createMergeCommit(currentCommit, branchCommitId, currentBranch, branchName,
+                stagingArea, removalArea);
 
         if (hasConflicts) {
             System.out.println("Encountered a merge conflict.");
@@ -649,61 +736,13 @@ public class Repository {
     }
 
     private String findSplitPoint(String commit1, String commit2) {
-        HashSet<String> ancestors1 = new HashSet<>();
-        Queue<String> queue = new LinkedList<>();
-
-        queue.add(commit1);
-        while (!queue.isEmpty()) {
-            String commitId = queue.remove();
-            ancestors1.add(commitId);
-
-            File commitFile = join(COMMIT_DIR, commitId);
-            if (commitFile.exists()) {
-                Commit commit = readObject(commitFile, Commit.class);
-                String parent = commit.getParent();
-                if (parent != null && !ancestors1.contains(parent)) {
-                    queue.add(parent);
-                }
-
-                String secondParent = commit.getSecondParent();
-                if (secondParent != null && !ancestors1.contains(secondParent)) {
-                    queue.add(secondParent);
-                }
-            }
-        }
-
-        queue.clear();
-        queue.add(commit2);
-        HashSet<String> visited = new HashSet<>();
-
-        while (!queue.isEmpty()) {
-            String commitId = queue.remove();
-
-            if (ancestors1.contains(commitId)) {
-                return commitId;
-            }
-
-            visited.add(commitId);
-
-            File commitFile = join(COMMIT_DIR, commitId);
-            if (commitFile.exists()) {
-                Commit commit = readObject(commitFile, Commit.class);
-                String parent = commit.getParent();
-                if (parent != null && !visited.contains(parent)) {
-                    queue.add(parent);
-                }
-                String secondParent = commit.getSecondParent();
-                if (secondParent != null && !visited.contains(secondParent)) {
-                    queue.add(secondParent);
-                }
-            }
-        }
-        return null;
+        String splitPoint = graph.mergeBase(commit1, commit2);
+        graph.save();
+        return splitPoint;
     }
 
     private boolean validateMergePrerequisites(String branchName) {
-        File branchFile = join(BRANCHES, branchName);
-        if (!branchFile.exists()) {
+        if (!refs.exists(branchName)) {
             System.out.println("A branch with that name does not exist.");
             return false;
         }
@@ -743,8 +782,7 @@ public class Repository {
 
     private boolean hasUntrackedConflicts(HashMap<String, String> currentBlobs,
                                           HashMap<String, String> branchBlobs) {
-        List<String> workingDirFiles = plainFilenamesIn(CWD);
-        for (String file : workingDirFiles) {
+        for (String file : new WorkTree(CWD).files()) {
             if (!currentBlobs.containsKey(file) && branchBlobs.containsKey(file)) {
                 System.out.println("There is an untracked file in the way; "
                                     + "delete it, or add and commit it first.");
@@ -755,30 +793,34 @@ public class Repository {
         return false;
     }
 
-    private boolean processMergeChanges(HashMap<String, String> currentBlobs,
+    /** Merges each of CHANGEDFILES, the files that differ between the split
+     *  point and either side; every other file is the same in all three.
+     *  Files to stage go in STAGINGAREA and files to remove in REMOVALAREA,
+     *  which are saved only with the merge commit. */
+    private boolean processMergeChanges(Set<String> changedFiles,
+                                        HashMap<String, String> currentBlobs,
                                         HashMap<String, String> branchBlobs,
                                         HashMap<String, String> splitBlobs,
                                         HashMap<String, String> stagingArea,
-                                        String branchCommitId) {
+                                        HashMap<String, Boolean> removalArea) {
         boolean hasConflicts = false;
-        HashSet<String> allFiles = new HashSet<>();
-        allFiles.addAll(currentBlobs.keySet());
-        allFiles.addAll(branchBlobs.keySet());
-        allFiles.addAll(splitBlobs.keySet());
 
-        for (String file : allFiles) {
+        for (String file : changedFiles) {
             String currentBlobId = currentBlobs.getOrDefault(file, null);
             String branchBlobId = branchBlobs.getOrDefault(file, null);
             String splitBlobId = splitBlobs.getOrDefault(file, null);
 
             if (mergeFileNeedsConflictResolution(currentBlobId, branchBlobId, splitBlobId)) {
-                handleMergeConflict(file, currentBlobId, branchBlobId, stagingArea);
-                hasConflicts = true;
+                if (mergeFile(file, splitBlobId, currentBlobId, branchBlobId, stagingArea)) {
+                    hasConflicts = true;
+                }
             } else if (shouldTakeBranchVersion(currentBlobId, branchBlobId, splitBlobId)) {
-                checkoutFileFromCommit(branchCommitId, file);
+                writeWorkingFile(file, branchBlobId);
                 stagingArea.put(file, branchBlobId);
             } else if (shouldRemoveFile(currentBlobId, branchBlobId, splitBlobId)) {
-                rm(file);
+                removalArea.put(file, true);
+                join(CWD, file).delete();
+                index.remove(file);
             }
         }
 
@@ -819,83 +861,94 @@ public class Repository {
         return currentBlobId != null && branchBlobId == null && splitBlobId != null;
     }
 
-    private void createMergeCommit(String currentCommitId, String branchCommitId,
+    private void createMergeCommit(Commit currentCommit, String branchCommitId,
                                    String currentBranch, String branchName,
-                                   HashMap<String, String> currentBlobs,
-                                   HashMap<String, String> stagingArea) {
-        HashMap<String, Boolean> removalArea = readObject(REMOVAL_AREA, HashMap.class);
-
+                                   HashMap<String, String> stagingArea,
+                                   HashMap<String, Boolean> removalArea) {
         Commit mergeCommit = new Commit("Merged " + branchName + " into " + currentBranch + ".",
-                currentCommitId);
+                currentCommit.getId());
         mergeCommit.setSecondParent(branchCommitId);
 
-        HashMap<String, String> newBlobs = new HashMap<>(currentBlobs);
-        for (String file : stagingArea.keySet()) {
-            newBlobs.put(file, stagingArea.get(file));
-        }
+        HashMap<String, String> changes = new HashMap<>(stagingArea);
         for (String file : removalArea.keySet()) {
-            newBlobs.remove(file);
+            changes.put(file, null);
         }
-        mergeCommit.setBlobs(newBlobs);
+        mergeCommit.setTree(objects.writeTree(currentCommit, changes), objects);
 
-        String mergeCommitId = sha1(serialize(mergeCommit));
+        String mergeCommitId = sha1(mergeCommit.encode());
         mergeCommit.setId(mergeCommitId);
-        File mergeCommitFile = join(COMMIT_DIR, mergeCommitId);
-        writeObject(mergeCommitFile, mergeCommit);
-        
-        writeContents(HEAD, mergeCommitId);
-        File currentBranchFile = join(BRANCHES, currentBranch);
-        writeContents(currentBranchFile, mergeCommitId);
-
-        List<String> workingDirFiles = plainFilenamesIn(CWD);
-        if (workingDirFiles != null) {
-            for (String file : workingDirFiles) {
-                if (!newBlobs.containsKey(file)) {
-                    File fileToDelete = join(CWD, file);
-                    if (fileToDelete.exists()) {
-                        fileToDelete.delete();
-                    }
-                }
-            }
-        }
+        objects.writeCommit(mergeCommit);
+        graph.add(mergeCommit);
+        graph.save();
 
         stagingArea.clear();
         removalArea.clear();
-        writeObject(STAGING_AREA, stagingArea);
-        writeObject(REMOVAL_AREA, removalArea);
+        File currentBranchFile = refs.file(currentBranch);
+        new Journal(GITLET_DIR, objects).write(HEAD, mergeCommitId)
+                .write(currentBranchFile, mergeCommitId).writeObject(STAGING_AREA, stagingArea)
+                .writeObject(REMOVAL_AREA, removalArea).commit();
+        logMove(currentBranch, currentCommit.getId(), mergeCommitId, "merge " + branchName);
+        index.save();
 
     }
 
-    private void handleMergeConflict(String file, String currentBlobId, String branchBlobId, 
-                               HashMap<String, String> stagingArea) {
-        String currentContent = "";
-        String branchContent = "";
-
-        if (currentBlobId != null) {
-            File currentBlobFile = join(BLOB_DIR, currentBlobId);
-            currentContent = readContentsAsString(currentBlobFile);
-        }
-    
-        if (branchBlobId != null) {
-            File branchBlobFile = join(BLOB_DIR, branchBlobId);
-            branchContent = readContentsAsString(branchBlobFile);
-        }
-    
-        String conflictContent = "<<<<<<< HEAD\n" 
-                            + currentContent 
-                           + "=======\n" 
-                           + branchContent 
-                           + ">>>>>>>\n";
-    
-        File conflictFile = join(CWD, file);
-        writeContents(conflictFile, conflictContent);
-    
-        byte[] contents = readContents(conflictFile);
+    /** Merges the versions CURRENTBLOBID and BRANCHBLOBID of FILE, changed
+     *  on both sides since SPLITBLOBID, line by line, and stages the
+     *  result.  Any blob id may be null for a missing file; a file deleted
+     *  on one side, or any version that is not valid UTF-8 text, conflicts
+     *  as a whole, with both versions copied byte for byte.  Returns true
+     *  iff the result has conflicts. */
+    private boolean mergeFile(String file, String splitBlobId, String currentBlobId,
+                              String branchBlobId, HashMap<String, String> stagingArea) {
+        byte[] current = blobBytes(currentBlobId);
+        byte[] branch = blobBytes(branchBlobId);
+        String splitText = text(blobBytes(splitBlobId));
+        String currentText = text(current);
+        String branchText = text(branch);
+        byte[] contents;
+        boolean conflicted;
+        if (currentBlobId == null || branchBlobId == null
+            || splitText == null || currentText == null || branchText == null) {
+            ByteArrayOutputStream merged = new ByteArrayOutputStream();
+            merged.writeBytes("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+            merged.writeBytes(current);
+            merged.writeBytes("=======\n".getBytes(StandardCharsets.UTF_8));
+            merged.writeBytes(branch);
+            merged.writeBytes(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+            contents = merged.toByteArray();
+            conflicted = true;
+        } else {
+            Merge3 merge = new Merge3(splitText, currentText, branchText);
+            contents = merge.text().getBytes(StandardCharsets.UTF_8);
+            conflicted = merge.conflicts() > 0;
+        }
+
+        File mergedFile = join(CWD, file);
+        writeContents(mergedFile, contents);
+
         String blobId = sha1(contents);
-        File blobFile = join(BLOB_DIR, blobId);
-        writeContents(blobFile, contents);
+        objects.writeBlob(blobId, contents, currentBlobId);
+        index.record(mergedFile, file, blobId);
         stagingArea.put(file, blobId);
+        return conflicted;
+    }
+
+    /** Returns the contents of blob BLOBID, or none if it is null. */
+    private byte[] blobBytes(String blobId) {
+        return blobId == null ? new byte[0] : objects.readBlob(blobId);
+    }
 
+    /** Returns CONTENTS decoded as UTF-8, or null if they are not valid
+     *  UTF-8, so that a line merge could not give them back unchanged. */
+    private static String text(byte[] contents) {
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT)
+                .decode(ByteBuffer.wrap(contents)).toString();
+        } catch (CharacterCodingException excp) {
+            return null;
+        }
     }
 
     public void addRemote(String remoteName, String remotePath) {
@@ -935,88 +988,76 @@ public class Repository {
             System.out.println("Remote directory not found.");
             return;
         }
+        Journal.recover(remoteGitletDir);
         String currentCommitId = readContentsAsString(HEAD);
-        File remoteBranchFile = join(remoteGitletDir, "branches", remoteBranchName);
-        String remoteCommitId = null;
-        if (remoteBranchFile.exists()) {
-            remoteCommitId = readContentsAsString(remoteBranchFile);
+        Refs remoteRefs = new Refs(remoteGitletDir);
+        File remoteBranchFile = remoteRefs.file(remoteBranchName);
+        String remoteCommitId = remoteRefs.get(remoteBranchName);
+        if (remoteCommitId != null) {
             if (!isInHistory(currentCommitId, remoteCommitId)) {
                 System.out.println("Please pull down remote changes before pushing.");
                 return;
             }
         }
 
-        copyCommitsToRemote(currentCommitId, remoteCommitId, remoteGitletDir);
-        writeContents(remoteBranchFile, currentCommitId);
+        Trace.phase("negotiate");
+        List<String> missing = graph.missing(currentCommitId, haves(remoteGitletDir, remoteRefs));
+        graph.save();
+        Trace.phase("send pack");
+        ObjectStore remoteObjects = new ObjectStore(remoteGitletDir);
+        objects.sendPack(missing, remoteObjects, true);
+        Trace.phase("update refs");
+        Journal journal = new Journal(remoteGitletDir, remoteObjects)
+            .write(remoteBranchFile, currentCommitId);
 
+        boolean movesHead = false;
         File remoteCurrentBranchFile = join(remoteGitletDir, "current_branch");
         if (remoteCurrentBranchFile.exists()) {
             String remoteCurrentBranch = readContentsAsString(remoteCurrentBranchFile);
             if (remoteCurrentBranch.equals(remoteBranchName)) {
                 File remoteHeadFile = join(remoteGitletDir, "HEAD");
-                writeContents(remoteHeadFile, currentCommitId);
+                journal.write(remoteHeadFile, currentCommitId);
+                movesHead = true;
             }
         }
+        journal.commit();
+        remoteRefs.log(remoteBranchName, remoteCommitId, currentCommitId, "push");
+        if (movesHead) {
+            remoteRefs.log("HEAD", remoteCommitId, currentCommitId, "push");
+        }
     }
 
     private boolean isInHistory(String currentCommitId, String remoteCommitId) {
         if (remoteCommitId == null) {
             return true;
         }
-        String current = currentCommitId;
-        while (current != null) {
-            if (current.equals(remoteCommitId)) {
-                return true;
-            }
-            File commitFile = join(COMMIT_DIR, current);
-            if (!commitFile.exists()) {
-                break;
-            }
-            Commit commit = readObject(commitFile, Commit.class);
-            current = commit.getParent();
-        }
-        return false;
+        boolean inHistory = graph.isAncestor(remoteCommitId, currentCommitId);
+        graph.save();
+        return inHistory;
     }
 
-    private void copyCommitsToRemote(String currentCommitId, String remoteCommitId,
-                                     File remoteDir) {
-        List<String> commitToCopy = new ArrayList<>();
-        String current = currentCommitId;
-        while (current != null && !current.equals(remoteCommitId)) {
-            commitToCopy.add(current);
-            File commitFile = join(COMMIT_DIR, current);
-            if (!commitFile.exists()) {
-                break;
-            }
-            Commit commit = readObject(commitFile, Commit.class);
-            current = commit.getParent();
-        }
-
-        for (String commitId : commitToCopy) {
-            File localCommitFile = join(COMMIT_DIR, commitId);
-            File remoteCommitFile = join(remoteDir, "commits", commitId);
-
-            if (!remoteCommitFile.exists()) {
-                Commit commit = readObject(localCommitFile, Commit.class);
-                writeObject(remoteCommitFile, commit);
-
-                HashMap<String, String> blobs = commit.getBlobs();
-                if (blobs != null) {
-                    for (String blobId : blobs.values()) {
-                        File localBlobFile = join(BLOB_DIR, blobId);
-                        File remoteBlobFile = join(remoteDir, "blobs", blobId);
-
-                        if (!remoteBlobFile.exists() && localBlobFile.exists()) {
-                            byte[] content = readContents(localBlobFile);
-                            writeContents(remoteBlobFile, content);
-                        }
-                    }
-                }
-            }
+    /** Returns the commits that the repository in GITLETDIR, whose branches
+     *  are REFS, is known to have along with all their ancestors: the
+     *  heads of its branches and its HEAD. */
+    private static List<String> haves(File gitletDir, Refs refs) {
+        List<String> result = new ArrayList<>(refs.branches().values());
+        File head = join(gitletDir, "HEAD");
+        if (head.isFile()) {
+            result.add(readContentsAsString(head));
         }
+        return result;
     }
 
     public void fetch(String remoteName, String remoteBranchName) {
+        fetch(remoteName, remoteBranchName, 0, true);
+    }
+
+    /** Fetches branch REMOTEBRANCHNAME of remote REMOTENAME.  If DEPTH is
+     *  positive, only the commits fewer than DEPTH parents away from its
+     *  head are fetched, and the oldest of them are recorded as shallow.
+     *  Unless BLOBS, no blobs are fetched, and the remote becomes the one
+     *  from which they are copied when first needed. */
+    public void fetch(String remoteName, String remoteBranchName, int depth, boolean blobs) {
         File remoteFile = join(REMOTES, remoteName);
         if (!remoteFile.exists()) {
             System.out.println("A remote with that name does not exist.");
@@ -1030,104 +1071,228 @@ public class Repository {
             System.out.println("Remote directory not found.");
             return;
         }
+        if (Journal.pending(remoteGitletDir)) {
+            System.out.println("Remote repository has an unfinished update.");
+            return;
+        }
 
-        File remoteBranchFile = join(remoteGitletDir, "branches", remoteBranchName);
-        if (!remoteBranchFile.exists()) {
+        String remoteHead = new Refs(remoteGitletDir).get(remoteBranchName);
+        if (remoteHead == null) {
             System.out.println("That remote does not have that branch.");
             return;
         }
 
-        String remoteHead = readContentsAsString(remoteBranchFile);
         String localTrackingBranchName = remoteName + "/" + remoteBranchName;
-        File localTrackingBranchFile = join(BRANCHES, localTrackingBranchName);
+        String localTrackingHead = refs.get(localTrackingBranchName);
 
-        File parentDir = localTrackingBranchFile.getParentFile();
-        if (!parentDir.exists()) {
-            parentDir.mkdir();
+        Config config = new Config(CONFIG);
+        if (!blobs && config.get(Config.PARTIAL_CLONE, null) == null) {
+            config.set(Config.PARTIAL_CLONE, remoteName);
         }
+        copyCommitsFromRemote(remoteHead, remoteGitletDir, depth, blobs);
 
-        String localTrackingHead = null;
-        if (localTrackingBranchFile.exists()) {
-            localTrackingHead = readContentsAsString(localTrackingBranchFile);
+        new Journal(GITLET_DIR, objects).write(refs.file(localTrackingBranchName), remoteHead)
+                .commit();
+        if (!remoteHead.equals(localTrackingHead)) {
+            refs.log(localTrackingBranchName, localTrackingHead, remoteHead,
+                     "fetch: " + remoteName + " " + remoteBranchName);
         }
 
-        copyCommitsFromRemote(remoteHead, localTrackingHead, remoteGitletDir);
+    }
 
-        writeContents(localTrackingBranchFile, remoteHead);
+    private void copyCommitsFromRemote(String remoteHead, File remoteDir, int depth,
+                                       boolean blobs) {
+        Trace.phase("negotiate");
+        ObjectStore remoteObjects = new ObjectStore(remoteDir, true);
+        List<String> missing;
+        if (depth > 0) {
+            Set<String> shallow = shallowCommits();
+            missing = remoteObjects.ancestors(remoteHead, depth,
+                id -> objects.hasCommit(id) && !shallow.contains(id));
+            missing.removeIf(shallow::contains);
+        } else {
+            CommitGraph remoteGraph = new CommitGraph(join(remoteDir, "commit-graph"),
+                                                      remoteObjects);
+            List<String> haves = SHALLOW.isFile() ? List.of() : haves(GITLET_DIR, refs);
+            missing = remoteGraph.missing(remoteHead, haves);
+        }
+        Trace.phase("send pack");
+        remoteObjects.sendPack(missing, objects, blobs);
+        Trace.phase("update refs");
+        if (depth > 0 || SHALLOW.isFile()) {
+            updateShallow(missing);
+        }
+        Commit head = objects.readCommit(remoteHead);
+        if (head != null) {
+            graph.add(head);
+            graph.save();
+        }
+    }
 
+    /** Returns the commits recorded as shallow: those whose parents were
+     *  not fetched. */
+    private static TreeSet<String> shallowCommits() {
+        TreeSet<String> result = new TreeSet<>();
+        if (SHALLOW.isFile()) {
+            result.addAll(Arrays.asList(readContentsAsString(SHALLOW).split("\n")));
+        }
+        return result;
     }
 
-    private void copyCommitsFromRemote(String remoteHead, String localHead,
-                                       File remoteDir) {
-        List<String> commitsToCopy = getCommitsToFetch(remoteHead, localHead,
-                                                        remoteDir);
-        for (String commitId : commitsToCopy) {
-            File remoteCommitFile = join(remoteDir, "commits", commitId);
-            File localCommitFile = join(COMMIT_DIR, commitId);
-
-            if (!localCommitFile.exists() && remoteCommitFile.exists()) {
-                Commit commit = readObject(remoteCommitFile, Commit.class);
-                writeObject(localCommitFile, commit);
-
-                HashMap<String, String> blobs = commit.getBlobs();
-                if (blobs != null) {
-                    for (String blobId : blobs.values()) {
-                        File remoteBlobFile = join(remoteDir, "blobs", blobId);
-                        File localBlobFile = join(BLOB_DIR, blobId);
-
-                        if (!localBlobFile.exists() && remoteBlobFile.exists()) {
-                            byte[] contents = readContents(remoteBlobFile);
-                            writeContents(localBlobFile, contents);
-                        }
-                    }
-                }
+    /** Records which of the commits FETCHED lack parents here, and forgets
+     *  shallow commits whose parents have all arrived.  If any have, the
+     *  commit graph, which took them for roots, is rebuilt. */
+    private void updateShallow(List<String> fetched) {
+        TreeSet<String> shallow = shallowCommits();
+        boolean deepened = false;
+        Set<String> fresh = new HashSet<>(fetched);
+        shallow.addAll(fetched);
+        for (Iterator<String> i = shallow.iterator(); i.hasNext();) {
+            String id = i.next();
+            Commit commit = objects.readCommit(id);
+            if (commit == null) {
+                continue;
+            }
+            String parent = commit.getParent();
+            String secondParent = commit.getSecondParent();
+            if ((parent == null || objects.hasCommit(parent))
+                && (secondParent == null || objects.hasCommit(secondParent))) {
+                i.remove();
+                deepened |= !fresh.contains(id);
             }
         }
+        if (shallow.isEmpty()) {
+            SHALLOW.delete();
+        } else {
+            writeContents(SHALLOW, String.join("\n", shallow) + "\n");
+        }
+        if (deepened) {
+            COMMIT_GRAPH.delete();
+            graph = new CommitGraph(COMMIT_GRAPH, objects);
+        }
     }
 
-    private List<String> getCommitsToFetch(String remoteHead, String localHead,
-                                           File remoteDir) {
-        List<String> commitsToCopy = new ArrayList<>();
-        HashSet<String> visited = new HashSet<>();
-        Queue<String> queue = new LinkedList<>();
-
-        queue.add(remoteHead);
-
-        while (!queue.isEmpty()) {
-            String commitId = queue.remove();
+    /** Prints the value of setting KEY, or sets it to VALUE if VALUE is
+     *  not null. */
+    public void config(String key, String value) {
+        Config config = new Config(CONFIG);
+        if (value == null) {
+            String current = config.get(key, null);
+            if (current != null) {
+                System.out.println(current);
+            }
+            return;
+        }
+        if (key.equals(Config.COMPRESSION) && Codec.forName(value) == null) {
+            System.out.println("Unknown compression codec.");
+            return;
+        }
+        config.set(key, value);
+    }
 
-            if (commitId == null || visited.contains(commitId)) {
-                continue;
+    /** Prints, as unified diffs, the differences between the files of
+     *  commit FROM and those of commit TO, or the working files if TO is
+     *  null.  FROM may be abbreviated, and is the head commit if null.
+     *  Edits are found in patience mode iff PATIENCE.  Files whose blob
+     *  ids agree are skipped without being read. */
+    public void diff(String from, String to, boolean patience) {
+        from = resolveCommitId(from == null ? readContentsAsString(HEAD) : from);
+        String toId = to == null ? null : resolveCommitId(to);
+        if (from == null || (to != null && toId == null)) {
+            return;
+        }
+        Commit fromCommit = objects.readCommit(from);
+        Commit toCommit = toId == null ? null : objects.readCommit(toId);
+        if (fromCommit == null || (toId != null && toCommit == null)) {
+            System.out.println("No commit with that id exists.");
+            return;
+        }
+        HashMap<String, String> fromBlobs = fromCommit.getBlobs();
+        if (fromBlobs == null) {
+            fromBlobs = new HashMap<>();
+        }
+        HashMap<String, String> toBlobs;
+        if (toCommit != null) {
+            toBlobs = toCommit.getBlobs() == null ? new HashMap<>() : toCommit.getBlobs();
+        } else {
+            toBlobs = new HashMap<>();
+            HashMap<String, String> stagingArea = readObject(STAGING_AREA, HashMap.class);
+            Set<String> tracked = new HashSet<>(fromBlobs.keySet());
+            tracked.addAll(stagingArea.keySet());
+            for (String file : tracked) {
+                String blobId = index.blobId(join(CWD, file), file);
+                if (blobId != null) {
+                    toBlobs.put(file, blobId);
+                }
             }
+            index.save();
+        }
 
-            if (commitId.equals(localHead)) {
+        TreeSet<String> files = new TreeSet<>(fromBlobs.keySet());
+        files.addAll(toBlobs.keySet());
+        for (String file : files) {
+            String fromBlobId = fromBlobs.get(file);
+            String toBlobId = toBlobs.get(file);
+            if (Objects.equals(fromBlobId, toBlobId)) {
                 continue;
             }
-
-            File localCommitFile = join(COMMIT_DIR, commitId);
-            if (localCommitFile.exists()) {
+            byte[] fromContents = fromBlobId == null ? new byte[0] : objects.readBlob(fromBlobId);
+            byte[] toContents;
+            if (toBlobId == null) {
+                toContents = new byte[0];
+            } else if (toCommit == null) {
+                toContents = readContents(join(CWD, file));
+            } else {
+                toContents = objects.readBlob(toBlobId);
+            }
+            System.out.println("diff --git a/" + file + " b/" + file);
+            if (isBinary(fromContents) || isBinary(toContents)) {
+                System.out.println("Binary files a/" + file + " and b/" + file + " differ");
                 continue;
             }
+            System.out.println(fromBlobId == null ? "--- /dev/null" : "--- a/" + file);
+            System.out.println(toBlobId == null ? "+++ /dev/null" : "+++ b/" + file);
+            List<String> fromLines = Diff.lines(new String(fromContents, StandardCharsets.UTF_8));
+            List<String> toLines = Diff.lines(new String(toContents, StandardCharsets.UTF_8));
+            HashMap<String, Integer> ids = new HashMap<>();
+            Diff.printUnified(fromLines, toLines,
+                    Diff.diff(Diff.ids(fromLines, ids), Diff.ids(toLines, ids), patience));
+        }
+    }
 
-            visited.add(commitId);
-            commitsToCopy.add(commitId);
-
-            File remoteCommitFile = join(remoteDir, "commits", commitId);
-            if (remoteCommitFile.exists()) {
-                Commit commit = readObject(remoteCommitFile, Commit.class);
+    /** Returns true iff CONTENTS look like binary data rather than text. */
+    private static boolean isBinary(byte[] contents) {
+        for (int i = 0; i < Math.min(contents.length, 8000); i += 1) {
+            if (contents[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-                String parent = commit.getParent();
-                if (parent != null) {
-                    queue.add(parent);
-                }
+    public void gc() {
+        objects.gc();
+        refs.pack();
+    }
 
-                String secondParent = commit.getSecondParent();
-                if (secondParent != null) {
-                    queue.add(secondParent);
-                }
-            }
+    /** Prints the reflog of REF, "HEAD" or a branch name, newest first. */
+    public void reflog(String ref) {
+        if (!ref.equals("HEAD") && !refs.exists(ref)) {
+            System.out.println("No such branch exists.");
+            return;
         }
-        return commitsToCopy;
+        List<String[]> entries = refs.reflog(ref);
+        for (int i = entries.size() - 1, n = 0; i >= 0; i -= 1, n += 1) {
+            String[] entry = entries.get(i);
+            System.out.println(entry[1] + " " + ref + "@{" + n + "}: " + entry[3]);
+        }
+    }
+
+    /** Records in the reflogs of BRANCH, which HEAD names, and of HEAD that
+     *  both moved from OLDID to NEWID because of MESSAGE. */
+    private void logMove(String branch, String oldId, String newId, String message) {
+        refs.log(branch, oldId, newId, message);
+        refs.log("HEAD", oldId, newId, message);
     }
 
     public void pull(String remoteName, String remoteBranchName) {
@@ -61,8 +61,7 @@ public class RepositoryTest {
         // Check initial commit exists
         String headCommitId = readContentsAsString(Repository.HEAD);
         assertNotNull(headCommitId);
-        File initialCommitFile = join(Repository.COMMIT_DIR, headCommitId);
-        assertTrue(initialCommitFile.exists());
+        assertNotNull(packedObject(headCommitId, ObjectStore.COMMIT));
         
         // Check master branch exists and points to initial commit
         File masterBranch = join(Repository.BRANCHES, "master");
@@ -99,9 +98,9 @@ public class RepositoryTest {
         
         // Check blob is created
         String blobId = stagingArea.get("test.txt");
-        File blobFile = join(Repository.BLOB_DIR, blobId);
-        assertTrue(blobFile.exists());
-        assertEquals("test content", readContentsAsString(blobFile));
+        byte[] blob = packedObject(blobId, ObjectStore.BLOB);
+        assertNotNull(blob);
+        assertEquals("test content", new String(blob));
     }
     
     @Test
@@ -133,9 +132,9 @@ public class RepositoryTest {
         assertNotEquals(oldHeadId, newHeadId);
         
         // Check commit file exists and has correct message
-        File commitFile = join(Repository.COMMIT_DIR, newHeadId);
-        assertTrue(commitFile.exists());
-        Commit commit = readObject(commitFile, Commit.class);
+        byte[] commitContents = packedObject(newHeadId, ObjectStore.COMMIT);
+        assertNotNull(commitContents);
+        Commit commit = Commit.decode(newHeadId, commitContents);
         assertEquals("test commit", commit.getMessage());
         assertEquals(oldHeadId, commit.getParent());
         
@@ -463,5 +462,919 @@ public class RepositoryTest {
         HashMap<String, String> stagingArea = readObject(Repository.STAGING_AREA, HashMap.class);
         assertFalse(stagingArea.containsKey("test.txt"));
     }
-}
+    
+    @Test
+    void testGcPacksLooseObjects() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        File testFile = join(tempDir.toFile(), "test.txt");
+        writeContents(testFile, "version 1");
+        repo.add("test.txt");
+        repo.commit("commit 1");
+        String commit1Id = readContentsAsString(Repository.HEAD);
+        
+        repo.gc();
+        
+        // Loose objects are gone, and a pack with its index exists
+        assertTrue(plainFilenamesIn(Repository.COMMIT_DIR).isEmpty());
+        assertTrue(plainFilenamesIn(Repository.BLOB_DIR).isEmpty());
+        assertEquals(2, plainFilenamesIn(Repository.PACK_DIR).size());
+        
+        // Packed objects are still readable
+        writeContents(testFile, "version 2");
+        repo.add("test.txt");
+        repo.commit("commit 2");
+        repo.checkoutFileFromCommit(commit1Id, "test.txt");
+        assertEquals("version 1", readContentsAsString(testFile));
+        
+        // A pack left half-written by a crash is ignored, and cleared by gc
+        writeContents(join(Repository.PACK_DIR, "pack-0.idx.tmp"), "trunc");
+        writeContents(join(Repository.PACK_DIR, "pack-0.pack"), "trunc");
+        repo.checkoutFileFromCommit(commit1Id, "test.txt");
+        repo.gc();
+        assertEquals(2, plainFilenamesIn(Repository.PACK_DIR).size());
+        repo.log();
+        assertTrue(outContent.toString().contains("initial commit"));
+    }
+    
+    @Test
+    void testAddStoresDeltaForEditedFile() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < 200; i += 1) {
+            contents.append("line ").append(i).append(" of a large file\n");
+        }
+        File testFile = join(tempDir.toFile(), "test.txt");
+        writeContents(testFile, contents.toString());
+        repo.add("test.txt");
+        repo.commit("commit 1");
+        String commit1Id = readContentsAsString(Repository.HEAD);
+        
+        String edited = contents.toString().replace("line 100 ", "edited line ");
+        writeContents(testFile, edited);
+        repo.add("test.txt");
+        repo.commit("commit 2");
+        
+        // Only the first version is stored whole (compressed); the edit is
+        // a small delta
+        assertTrue(packedIds(ObjectStore.BLOB).isEmpty());
+        assertEquals(java.util.Set.of(sha1(contents.toString())),
+                     packedIds(ObjectStore.COMPRESSED));
+        assertTrue(packedObject(sha1(edited), ObjectStore.DELTA).length < edited.length() / 10);
+        
+        repo.checkoutFileFromCommit(commit1Id, "test.txt");
+        assertEquals(contents.toString(), readContentsAsString(testFile));
+        repo.checkoutFile("test.txt");
+        assertEquals(edited, readContentsAsString(testFile));
+    }
+    
+    @Test
+    void testStatusReusesIndexForUnchangedStat() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        File testFile = join(tempDir.toFile(), "test.txt");
+        writeContents(testFile, "aaaa");
+        long past = System.currentTimeMillis() - 60000;
+        testFile.setLastModified(past);
+        repo.add("test.txt");
+        repo.commit("commit 1");
+        assertTrue(Repository.INDEX.exists());
+        
+        // Same size and mtime: status trusts the index and does not rehash
+        writeContents(testFile, "bbbb");
+        testFile.setLastModified(past);
+        new Repository().status();
+        assertFalse(outContent.toString().contains("test.txt (modified)"));
+        
+        // A changed mtime forces a rehash
+        testFile.setLastModified(past + 1000);
+        new Repository().status();
+        assertTrue(outContent.toString().contains("test.txt (modified)"));
+    }
+    
+    @Test
+    void testCommitEncodingRoundTrip() {
+        Commit commit = new Commit("a message", sha1("parent"));
+        commit.setSecondParent(sha1("second parent"));
+        HashMap<String, String> blobs = new HashMap<>();
+        blobs.put("b.txt", sha1("b"));
+        blobs.put("a.txt", sha1("a"));
+        commit.setBlobs(blobs);
+        
+        byte[] encoded = commit.encode();
+        assertTrue(Commit.isEncoded(encoded));
+        assertTrue(encoded.length < serialize(commit).length);
+        
+        Commit decoded = Commit.decode(sha1(encoded), encoded);
+        assertEquals(sha1(encoded), decoded.getId());
+        assertEquals(commit.getMessage(), decoded.getMessage());
+        assertEquals(commit.getTimeStamp(), decoded.getTimeStamp());
+        assertEquals(commit.getParent(), decoded.getParent());
+        assertEquals(commit.getSecondParent(), decoded.getSecondParent());
+        assertEquals(blobs, decoded.getBlobs());
+        
+        // The encoding is canonical, so the id does not depend on map order
+        assertEquals(sha1(encoded), sha1(decoded.encode()));
+    }
+    
+    @Test
+    void testCommitWritesOnlyChangedSubtrees() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        join(tempDir.toFile(), "a").mkdir();
+        join(tempDir.toFile(), "b").mkdir();
+        writeContents(join(tempDir.toFile(), "a", "x.txt"), "x");
+        writeContents(join(tempDir.toFile(), "b", "y.txt"), "y");
+        repo.add("a/x.txt");
+        repo.add("b/y.txt");
+        repo.commit("two directories");
+        int trees = packedIds(ObjectStore.TREE).size();
+        
+        // Changing a/x.txt writes new trees for a/ and the root only
+        writeContents(join(tempDir.toFile(), "a", "x.txt"), "x2");
+        repo.add("a/x.txt");
+        repo.commit("change a");
+        assertEquals(trees + 2, packedIds(ObjectStore.TREE).size());
+        
+        String headId = readContentsAsString(Repository.HEAD);
+        ObjectStore objects = new ObjectStore(Repository.GITLET_DIR);
+        Commit head = objects.readCommit(headId);
+        Commit parent = objects.readCommit(head.getParent());
+        assertEquals(sha1("y"), head.getBlobs().get("b/y.txt"));
+        assertEquals(java.util.Set.of("a/x.txt"), objects.changedPaths(parent, head));
+    }
+    
+    @Test
+    void testCommitGraphAnswersAncestry() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        writeContents(join(tempDir.toFile(), "f.txt"), "base");
+        repo.add("f.txt");
+        repo.commit("base");
+        String base = readContentsAsString(Repository.HEAD);
+        repo.branch("other");
+        writeContents(join(tempDir.toFile(), "f.txt"), "master");
+        repo.add("f.txt");
+        repo.commit("on master");
+        String master = readContentsAsString(Repository.HEAD);
+        assertTrue(Repository.COMMIT_GRAPH.exists());
+        
+        ObjectStore objects = new ObjectStore(Repository.GITLET_DIR);
+        Commit other = new Commit("on other", base);
+        other.setTree(objects.writeTree(objects.readCommit(base), new HashMap<>()), objects);
+        other.setId(sha1(other.encode()));
+        objects.writeCommit(other);
+        
+        // A fresh graph picks up commits it has not seen yet
+        CommitGraph graph = new CommitGraph(Repository.COMMIT_GRAPH, objects);
+        assertEquals(base, graph.mergeBase(master, other.getId()));
+        assertTrue(graph.isAncestor(base, master));
+        assertFalse(graph.isAncestor(master, other.getId()));
+        graph.save();
+        
+        // Rebuilding the file from scratch gives the same answers
+        Repository.COMMIT_GRAPH.delete();
+        graph = new CommitGraph(Repository.COMMIT_GRAPH, objects);
+        assertEquals(base, graph.mergeBase(other.getId(), master));
+        assertEquals(3, graph.ancestors(master, id -> false).size());
+    }
+    
+    @Test
+    void testResetResolvesAbbreviatedIdAfterGc() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        writeContents(join(tempDir.toFile(), "f.txt"), "one");
+        repo.add("f.txt");
+        repo.commit("one");
+        String first = readContentsAsString(Repository.HEAD);
+        repo.gc();
+        writeContents(join(tempDir.toFile(), "f.txt"), "two");
+        repo.add("f.txt");
+        repo.commit("two");
+        
+        // The first commit is now packed; the index still finds it
+        assertTrue(join(Repository.GITLET_DIR, "commit-index").exists());
+        new Repository().reset(first.substring(0, 8));
+        assertEquals(first, readContentsAsString(Repository.HEAD));
+        assertEquals("one", readContentsAsString(join(tempDir.toFile(), "f.txt")));
+        
+        outContent.reset();
+        new Repository().reset("zz");
+        assertEquals("No commit with that id exists.", outContent.toString().trim());
+    }
+    
+    @Test
+    void testFindSubstringAndRegex() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        writeContents(join(tempDir.toFile(), "f.txt"), "one");
+        repo.add("f.txt");
+        repo.commit("fix parser bug 12");
+        String fixId = readContentsAsString(Repository.HEAD);
+        writeContents(join(tempDir.toFile(), "f.txt"), "two");
+        repo.add("f.txt");
+        repo.commit("add parser tests");
+        
+        outContent.reset();
+        repo.find("parser", "substring");
+        assertEquals(2, outContent.toString().trim().split("\n").length);
+        
+        outContent.reset();
+        repo.find("fix par[a-z]+ bug \\d+$", "regex");
+        assertEquals(fixId, outContent.toString().trim());
+        
+        outContent.reset();
+        repo.find("parser", "exact");
+        assertEquals("Found no commit with that message.", outContent.toString().trim());
+        
+        assertEquals(" bug ", MessageIndex.literal("fix p?ar[a-z]+ bug \\d+$"));
+        
+        // Escapes with arguments end the literal run; quoted text extends it
+        outContent.reset();
+        repo.find("fix \\x70arser\\u0020bug \\p{Digit}+", "regex");
+        assertEquals(fixId, outContent.toString().trim());
+        assertEquals("arser", MessageIndex.literal("fix \\x70arser\\u0020bug"));
+        assertEquals("ab", MessageIndex.literal("\\cJab\\k<n>"));
+        assertEquals("s.t+u", MessageIndex.literal("\\p{L}s\\.\\Qt+\\Eu"));
+    }
+    
+    @Test
+    void testAddManyPathsAndDirectories() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        join(tempDir.toFile(), "d", "e").mkdirs();
+        for (int i = 0; i < 50; i += 1) {
+            writeContents(join(tempDir.toFile(), "d", "e", "f" + i + ".txt"), "file " + i);
+        }
+        writeContents(join(tempDir.toFile(), "top.txt"), "top");
+        writeContents(join(tempDir.toFile(), "same.txt"), "file 0");
+        int packs = plainFilenamesIn(Repository.PACK_DIR).size();
+        repo.add(java.util.Arrays.asList("d", "top.txt", "same.txt"));
+        // The new blobs are written as one pack, not a file each
+        assertEquals(packs + 2, plainFilenamesIn(Repository.PACK_DIR).size());
+        
+        HashMap<String, String> staging = readObject(Repository.STAGING_AREA, HashMap.class);
+        assertEquals(52, staging.size());
+        assertEquals(sha1("file 7"), staging.get("d/e/f7.txt"));
+        assertEquals(staging.get("d/e/f0.txt"), staging.get("same.txt"));
+        ObjectStore objects = new ObjectStore(Repository.GITLET_DIR);
+        assertEquals("file 7", new String(objects.readBlob(sha1("file 7"))));
+        
+        // A missing path stages nothing
+        writeContents(join(tempDir.toFile(), "new.txt"), "new");
+        repo.add(java.util.Arrays.asList("new.txt", "missing.txt"));
+        assertFalse(readObject(Repository.STAGING_AREA, HashMap.class).containsKey("new.txt"));
+    }
+    
+    @Test
+    void testLargeBlobIsChunkedAndStreamed() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        byte[] big = new byte[(int) ObjectStore.LARGE_BLOB + 1];
+        for (int i = 0; i < big.length; i += 1) {
+            big[i] = (byte) (i * 31 + (i >> 12));
+        }
+        File file = join(tempDir.toFile(), "big.bin");
+        writeContents(file, big);
+        assertEquals(sha1(big), sha1(file));
+        repo.add("big.bin");
+        repo.commit("big file");
+        assertNotNull(packedObject(sha1(big), ObjectStore.CHUNKED));
+        repo.gc();
+        assertFalse(join(Repository.BLOB_DIR, sha1(big)).exists());
+        assertArrayEquals(big, new ObjectStore(Repository.GITLET_DIR).readBlob(sha1(big)));
+        
+        file.delete();
+        new Repository().checkoutFile("big.bin");
+        assertArrayEquals(big, readContents(file));
+    }
+    
+    @Test
+    void testBlobsAreCompressedWithConfiguredCodec() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        String text = "the same line over and over\n".repeat(1000);
+        writeContents(join(tempDir.toFile(), "a.txt"), text);
+        repo.add("a.txt");
+        byte[] stored = packedObject(sha1(text), ObjectStore.COMPRESSED);
+        assertTrue(stored.length < text.length() / 10);
+        
+        // Objects written with one codec stay readable after switching
+        repo.config(Config.COMPRESSION, "none");
+        String other = "another file, stored raw\n".repeat(1000);
+        writeContents(join(tempDir.toFile(), "b.txt"), other);
+        new Repository().add("b.txt");
+        assertEquals(other.length(), packedObject(sha1(other), ObjectStore.BLOB).length);
+        
+        repo.config(Config.COMPRESSION, "deflate-fast");
+        new Repository().gc();
+        ObjectStore objects = new ObjectStore(Repository.GITLET_DIR);
+        assertEquals(text, new String(objects.readBlob(sha1(text))));
+        assertEquals(other, new String(objects.readBlob(sha1(other))));
+        long packBytes = 0;
+        for (String name : plainFilenamesIn(Repository.PACK_DIR)) {
+            packBytes += join(Repository.PACK_DIR, name).length();
+        }
+        assertTrue(packBytes < text.length() / 2);
+    }
+    
+    @Test
+    void testRunReportsErrorsWithoutExiting() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        // The daemon runs many commands in one JVM, so errors must not exit
+        Main.run(new String[] {"commit"}, repo);
+        Main.run(new String[] {"add"}, repo);
+        writeContents(join(tempDir.toFile(), "f.txt"), "f");
+        Main.run(new String[] {"add", "f.txt"}, repo);
+        Main.run(new String[] {"commit", "warm"}, repo);
+        assertEquals("Incorrect operands.\nIncorrect operands.",
+                     outContent.toString().trim().replace("\r", ""));
+        assertEquals("warm", new ObjectStore(Repository.GITLET_DIR)
+                .readCommit(readContentsAsString(Repository.HEAD)).getMessage());
+    }
+    
+    @Test
+    void testObjectCacheServesRepeatReads() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        writeContents(join(tempDir.toFile(), "f.txt"), "f");
+        repo.add("f.txt");
+        repo.commit("one");
+        String headId = readContentsAsString(Repository.HEAD);
+        
+        ObjectStore objects = new ObjectStore(Repository.GITLET_DIR);
+        Commit head = objects.readCommit(headId);
+        assertEquals(0, objects.cacheHits());
+        assertTrue(head == objects.readCommit(headId));
+        assertEquals("f", new String(objects.readBlob(sha1("f"))));
+        objects.readBlob(sha1("f"));
+        assertEquals(2, objects.cacheHits());
+        
+        // Building a new tree from a cached one leaves the cached one intact
+        HashMap<String, String> changes = new HashMap<>();
+        changes.put("g.txt", sha1("g"));
+        objects.writeTree(head, changes);
+        assertEquals(java.util.Set.of("f.txt"), objects.flattenTree(head.getTree()).keySet());
+    }
+    
+    @Test
+    void testInterruptedJournalIsReplayed() throws java.io.IOException {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        String initialId = readContentsAsString(Repository.HEAD);
+        writeContents(join(tempDir.toFile(), "f.txt"), "f");
+        repo.add("f.txt");
+        repo.commit("one");
+        assertFalse(join(Repository.GITLET_DIR, "journal").exists());
+        
+        // A journal that was renamed into place but not yet applied
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        java.io.DataOutputStream out = new java.io.DataOutputStream(bytes);
+        out.writeInt(0x474a4e31);
+        out.writeInt(2);
+        for (String name : new String[] {"HEAD", "branches/master"}) {
+            out.writeUTF(name);
+            out.writeInt(initialId.length());
+            out.writeBytes(initialId);
+        }
+        out.close();
+        writeContents(join(Repository.GITLET_DIR, "journal"), bytes.toByteArray());
+        // and one that was never completed
+        writeContents(join(Repository.GITLET_DIR, "journal.tmp"), "garbage");
+        
+        new Repository();
+        assertEquals(initialId, readContentsAsString(Repository.HEAD));
+        assertEquals(initialId, readContentsAsString(join(Repository.BRANCHES, "master")));
+        assertFalse(join(Repository.GITLET_DIR, "journal").exists());
+        assertFalse(join(Repository.GITLET_DIR, "journal.tmp").exists());
+    }
+    
+    @Test
+    void testPackedRefsAndReflog() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        String initialId = readContentsAsString(Repository.HEAD);
+        repo.branch("other");
+        writeContents(join(tempDir.toFile(), "f.txt"), "f");
+        repo.add("f.txt");
+        repo.commit("one");
+        String oneId = readContentsAsString(Repository.HEAD);
+        
+        // gc packs every loose branch; a later move is loose again and wins
+        repo.gc();
+        assertFalse(join(Repository.BRANCHES, "master").exists());
+        assertTrue(join(Repository.GITLET_DIR, "packed-refs").exists());
+        repo.checkoutBranch("other");
+        assertEquals(initialId, readContentsAsString(Repository.HEAD));
+        repo.reset(oneId);
+        Refs refs = new Refs(Repository.GITLET_DIR);
+        assertEquals(oneId, refs.get("other"));
+        assertEquals(oneId, refs.get("master"));
+        assertEquals(java.util.List.of("master", "other"),
+                new java.util.ArrayList<>(refs.branches().keySet()));
+        
+        // Deleting a packed branch removes it from packed-refs
+        repo.checkoutBranch("master");
+        repo.reBranch("other");
+        assertFalse(new Refs(Repository.GITLET_DIR).exists("other"));
+        
+        java.util.List<String[]> head = refs.reflog("HEAD");
+        assertEquals(5, head.size());
+        assertEquals(Refs.NO_COMMIT, head.get(0)[0]);
+        assertEquals("commit: one", head.get(1)[3]);
+        assertEquals("checkout: moving from master to other", head.get(2)[3]);
+        assertEquals("reset: moving to " + oneId, head.get(3)[3]);
+        assertEquals(oneId, head.get(4)[1]);
+        assertEquals(2, refs.reflog("master").size());
+    }
+    
+    @Test
+    void testCheckoutWritesOnlyChangedFiles() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        for (int i = 0; i < 20; i += 1) {
+            writeContents(join(tempDir.toFile(), "f" + i + ".txt"), "v1 " + i);
+        }
+        java.util.List<String> names = new java.util.ArrayList<>();
+        for (int i = 0; i < 20; i += 1) {
+            names.add("f" + i + ".txt");
+        }
+        repo.add(names);
+        repo.commit("twenty");
+        repo.branch("other");
+        writeContents(join(tempDir.toFile(), "f0.txt"), "v2");
+        repo.add("f0.txt");
+        repo.rm("f1.txt");
+        repo.commit("change two");
+        
+        repo.checkoutBranch("other");
+        assertEquals(2, repo.filesWritten());
+        assertEquals("v1 0", readContentsAsString(join(tempDir.toFile(), "f0.txt")));
+        assertEquals("v1 1", readContentsAsString(join(tempDir.toFile(), "f1.txt")));
+        
+        // A file the two commits agree on is not visited, so a working
+        // edit to it is kept, as git does
+        writeContents(join(tempDir.toFile(), "f5.txt"), "edited");
+        repo.checkoutBranch("master");
+        assertEquals(1, repo.filesWritten());
+        assertEquals(1, repo.filesDeleted());
+        assertFalse(join(tempDir.toFile(), "f1.txt").exists());
+        assertEquals("edited", readContentsAsString(join(tempDir.toFile(), "f5.txt")));
+        
+        repo.reset(readContentsAsString(Repository.HEAD));
+        assertEquals(0, repo.filesWritten());
+    }
+    
+    @Test
+    void testMergeCombinesNonOverlappingEdits() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        File f = join(tempDir.toFile(), "f.txt");
+        writeContents(f, "a\nb\nc\nd\ne\n");
+        File g = join(tempDir.toFile(), "g.txt");
+        writeContents(g, "gone\n");
+        repo.add("f.txt");
+        repo.add("g.txt");
+        repo.commit("base");
+        repo.branch("other");
+        writeContents(f, "A\nb\nc\nd\ne\n");
+        repo.add("f.txt");
+        repo.commit("ours");
+        repo.checkoutBranch("other");
+        writeContents(f, "a\nb\nc\nd\nE\nf\n");
+        repo.add("f.txt");
+        repo.rm("g.txt");
+        repo.commit("theirs");
+        repo.checkoutBranch("master");
+        
+        repo.merge("other");
+        assertFalse(outContent.toString().contains("Encountered a merge conflict."));
+        assertEquals("A\nb\nc\nd\nE\nf\n", readContentsAsString(f));
+        // A file deleted on the other side is removed by the merge commit itself
+        assertFalse(g.exists());
+        Commit merged = new ObjectStore(Repository.GITLET_DIR)
+                .readCommit(readContentsAsString(Repository.HEAD));
+        assertFalse(merged.getBlobs().containsKey("g.txt"));
+        assertTrue(readObject(Repository.REMOVAL_AREA, java.util.HashMap.class).isEmpty());
+        
+        // Edits to a file that is not UTF-8 conflict as a whole, byte for byte
+        File bin = join(tempDir.toFile(), "bin.dat");
+        writeContents(bin, new byte[] {(byte) 0xff, '\n', 'b', '\n', (byte) 0xfe, '\n'});
+        repo.add("bin.dat");
+        repo.commit("bin");
+        repo.branch("bin");
+        repo.checkoutBranch("bin");
+        byte[] theirs = {(byte) 0xff, '\n', 'b', '\n', (byte) 0xfd, '\n'};
+        writeContents(bin, theirs);
+        repo.add("bin.dat");
+        repo.commit("theirs bin");
+        repo.checkoutBranch("master");
+        byte[] ours = {(byte) 0xfc, '\n', 'b', '\n', (byte) 0xfe, '\n'};
+        writeContents(bin, ours);
+        repo.add("bin.dat");
+        repo.commit("ours bin");
+        outContent.reset();
+        repo.merge("bin");
+        assertTrue(outContent.toString().contains("Encountered a merge conflict."));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.writeBytes("<<<<<<< HEAD\n".getBytes());
+        expected.writeBytes(ours);
+        expected.writeBytes("=======\n".getBytes());
+        expected.writeBytes(theirs);
+        expected.writeBytes(">>>>>>>\n".getBytes());
+        assertArrayEquals(expected.toByteArray(), readContents(bin));
+        
+        // Overlapping edits conflict in the changed lines only
+        Merge3 merge = new Merge3("a\nb\nc\n", "a\nX\nc\n", "a\nY\nc\n");
+        assertEquals(1, merge.conflicts());
+        assertEquals("a\n<<<<<<< HEAD\nX\n=======\nY\n>>>>>>>\nc\n", merge.text());
+    }
+    
+    @Test
+    void testDiffPrintsUnifiedHunks() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        File f = join(tempDir.toFile(), "f.txt");
+        writeContents(f, "1\n2\n3\n4\n5\n6\n7\n8\n9\n10\n");
+        writeContents(join(tempDir.toFile(), "same.txt"), "same\n");
+        repo.add(java.util.List.of("f.txt", "same.txt"));
+        repo.commit("base");
+        String baseId = readContentsAsString(Repository.HEAD);
+        writeContents(f, "1\n2\n3\n4\nfive\n6\n7\n8\n9\n10\n");
+        repo.add("f.txt");
+        repo.commit("edit");
+        
+        outContent.reset();
+        repo.diff(baseId.substring(0, 8), readContentsAsString(Repository.HEAD), false);
+        assertEquals("diff --git a/f.txt b/f.txt\n--- a/f.txt\n+++ b/f.txt\n"
+                     + "@@ -2,7 +2,7 @@\n 2\n 3\n 4\n-5\n+five\n 6\n 7\n 8\n",
+                     outContent.toString());
+        
+        // The working tree is compared with HEAD by default
+        outContent.reset();
+        writeContents(f, "1\n2\n3\n4\nfive\n6\n7\n8\n9\n10\n11\n");
+        repo.diff(null, null, true);
+        assertTrue(outContent.toString().endsWith("@@ -8,3 +8,4 @@\n 8\n 9\n 10\n+11\n"));
+    }
+    
+    @Test
+    void testSendPackCopiesMissingHistoryInOnePack() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        String initialId = readContentsAsString(Repository.HEAD);
+        writeContents(join(tempDir.toFile(), "a.txt"), "a");
+        repo.add("a.txt");
+        repo.commit("a");
+        repo.branch("side");
+        writeContents(join(tempDir.toFile(), "b.txt"), "b");
+        repo.add("b.txt");
+        repo.commit("b");
+        repo.checkoutBranch("side");
+        writeContents(join(tempDir.toFile(), "c.txt"), "c");
+        repo.add("c.txt");
+        repo.commit("c");
+        repo.checkoutBranch("master");
+        repo.merge("side");
+        String mergeId = readContentsAsString(Repository.HEAD);
+        
+        ObjectStore objects = new ObjectStore(Repository.GITLET_DIR);
+        CommitGraph graph = new CommitGraph(Repository.COMMIT_GRAPH, objects);
+        // Both parents of the merge are followed, and the have is excluded
+        java.util.List<String> missing = graph.missing(mergeId, java.util.List.of(initialId));
+        assertEquals(4, missing.size());
+        assertFalse(missing.contains(initialId));
+        
+        File destDir = join(tempDir.toFile(), "dest");
+        destDir.mkdir();
+        ObjectStore dest = new ObjectStore(destDir);
+        objects.sendPack(missing, dest, true);
+        assertEquals(2, join(destDir, "packs").list().length);
+        for (String id : missing) {
+            assertTrue(dest.hasCommit(id));
+            assertEquals(1, dest.commitIdsWithPrefix(id).size());
+        }
+        java.util.HashMap<String, String> files =
+            dest.flattenTree(dest.readCommit(mergeId).getTree());
+        assertEquals(java.util.Set.of("a.txt", "b.txt", "c.txt"), files.keySet());
+        assertEquals("c", new String(dest.readBlob(files.get("c.txt"))));
+        assertTrue(graph.missing(mergeId, java.util.List.of(mergeId)).isEmpty());
+    }
+
+    @Test
+    void testShallowAndPartialPackFetchBlobsOnRead() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        String initialId = readContentsAsString(Repository.HEAD);
+        for (String name : new String[] {"a", "b", "c"}) {
+            writeContents(join(tempDir.toFile(), name + ".txt"), name);
+            repo.add(name + ".txt");
+            repo.commit(name);
+        }
+        String headId = readContentsAsString(Repository.HEAD);
+        
+        ObjectStore objects = new ObjectStore(Repository.GITLET_DIR);
+        java.util.List<String> shallow = objects.ancestors(headId, 2, id -> false);
+        assertEquals(2, shallow.size());
+        assertEquals(headId, shallow.get(0));
+        assertEquals(4, objects.ancestors(headId, 10, id -> false).size());
+        assertEquals(3, objects.ancestors(headId, 10, initialId::equals).size());
+        
+        File destDir = join(tempDir.toFile(), "dest");
+        destDir.mkdir();
+        writeContents(join(destDir, "config"), "");
+        new Config(join(destDir, "config")).set(Config.PARTIAL_CLONE, "origin");
+        join(destDir, "remotes").mkdir();
+        join(destDir, "blobs").mkdir();
+        writeContents(join(destDir, "remotes", "origin"), Repository.GITLET_DIR.getPath());
+        ObjectStore dest = new ObjectStore(destDir);
+        objects.sendPack(shallow, dest, false);
+        String blobId = dest.flattenTree(dest.readCommit(headId).getTree()).get("c.txt");
+        // The blob is not sent, but is copied from the remote when read
+        assertFalse(dest.hasBlob(blobId));
+        assertEquals("c", new String(dest.readBlob(blobId)));
+        assertTrue(dest.hasBlob(blobId));
+        assertFalse(dest.hasCommit(initialId));
+        
+        // Sending on what the partial clone lacks fetches it from the
+        // promisor first, and fails if the promisor is gone
+        File thirdDir = join(tempDir.toFile(), "third");
+        join(thirdDir, "blobs").mkdirs();
+        ObjectStore third = new ObjectStore(thirdDir);
+        File remote = join(destDir, "remotes", "origin");
+        remote.renameTo(join(destDir, "origin"));
+        assertThrows(GitletException.class,
+            () -> new ObjectStore(destDir).sendPack(shallow, third, true));
+        join(destDir, "origin").renameTo(remote);
+        new ObjectStore(destDir).sendPack(shallow, third, true);
+        assertEquals("a", new String(third.readBlob(sha1("a"))));
+        assertEquals("b", new String(third.readBlob(sha1("b"))));
+    }
+
+    @Test
+    void testReadOnlyStoreWritesNothing() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        writeContents(join(tempDir.toFile(), "a.txt"), "a");
+        repo.add("a.txt");
+        repo.commit("a");
+        String headId = readContentsAsString(Repository.HEAD);
+        String[] sideFiles = {"object-filter", "commit-index", "message-index"};
+        for (String name : sideFiles) {
+            join(Repository.GITLET_DIR, name).delete();
+        }
+        
+        // A remote's store is read from its packs alone
+        ObjectStore remote = new ObjectStore(Repository.GITLET_DIR, true);
+        assertTrue(remote.hasCommit(headId));
+        assertTrue(remote.hasBlob(sha1("a")));
+        assertFalse(remote.hasBlob(sha1("b")));
+        assertEquals(java.util.List.of(headId),
+                     remote.commitIdsWithPrefix(headId.substring(0, 8)));
+        File destDir = join(tempDir.toFile(), "dest");
+        destDir.mkdir();
+        ObjectStore dest = new ObjectStore(destDir);
+        remote.sendPack(java.util.List.of(headId), dest, true);
+        assertEquals("a", new String(dest.readBlob(sha1("a"))));
+        assertThrows(GitletException.class,
+            () -> dest.sendPack(java.util.List.of(headId), remote, true));
+        assertThrows(GitletException.class, () -> remote.writeBlob(sha1("b"), "b".getBytes()));
+        for (String name : sideFiles) {
+            assertFalse(join(Repository.GITLET_DIR, name).exists());
+        }
+    }
+
+    @Test
+    void testWorkTreeScansNestedDirectoriesAndHonorsIgnoreFile() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        File root = tempDir.toFile();
+        join(root, "src", "deep").mkdirs();
+        join(root, "target", "classes").mkdirs();
+        join(root, "build").mkdirs();
+        writeContents(join(root, ".gitletignore"),
+                      "# output\ntarget/\n*.log\n!keep.log\n/build/*.o\n");
+        writeContents(join(root, "src", "a.txt"), "a");
+        writeContents(join(root, "src", "deep", "b.txt"), "b");
+        writeContents(join(root, "src", "deep", "c.o"), "c");
+        writeContents(join(root, "target", "classes", "A.class"), "x");
+        writeContents(join(root, "build", "d.o"), "d");
+        writeContents(join(root, "x.log"), "x");
+        writeContents(join(root, "keep.log"), "k");
+        
+        WorkTree tree = new WorkTree(root);
+        assertEquals(java.util.List.of(".gitletignore", "keep.log", "src/a.txt",
+                                       "src/deep/b.txt", "src/deep/c.o"), tree.files());
+        assertEquals(java.util.List.of("src/deep/b.txt", "src/deep/c.o"),
+                     tree.files(join(root, "src", "deep")));
+        assertTrue(tree.ignored("target", true));
+        assertFalse(tree.ignored("target", false));
+        assertTrue(tree.ignored("src/x.log", false));
+        assertTrue(tree.ignored("build/d.o", false));
+        
+        repo.add(".");
+        repo.commit("tree");
+        assertEquals(java.util.Set.of(".gitletignore", "keep.log", "src/a.txt",
+                                      "src/deep/b.txt", "src/deep/c.o"),
+                     new ObjectStore(Repository.GITLET_DIR)
+                         .readCommit(readContentsAsString(Repository.HEAD)).getBlobs().keySet());
+        
+        repo.branch("side");
+        repo.checkoutBranch("side");
+        writeContents(join(root, "src", "deep", "new.txt"), "side");
+        repo.add("src/deep/new.txt");
+        repo.commit("new");
+        repo.checkoutBranch("master");
+        assertFalse(join(root, "src", "deep", "new.txt").exists());
+        writeContents(join(root, "src", "deep", "new.txt"), "untracked");
+        outContent.reset();
+        repo.status();
+        assertTrue(outContent.toString().endsWith("=== Untracked Files ===\nsrc/deep/new.txt\n"));
+        repo.checkoutBranch("side");
+        assertTrue(outContent.toString().contains("There is an untracked file in the way"));
+        assertEquals("untracked", readContentsAsString(join(root, "src", "deep", "new.txt")));
+        
+        // A merge deletes only the tracked files it removes, at any depth
+        join(root, "src", "deep", "new.txt").delete();
+        repo.checkoutBranch("side");
+        repo.rm("src/deep/b.txt");
+        repo.commit("remove b");
+        repo.checkoutBranch("master");
+        writeContents(join(root, "notes.txt"), "untracked");
+        writeContents(join(root, "src", "x.log"), "ignored");
+        repo.merge("side");
+        assertFalse(join(root, "src", "deep", "b.txt").exists());
+        assertTrue(join(root, "src", "deep", "new.txt").exists());
+        assertTrue(join(root, ".gitletignore").exists());
+        assertTrue(join(root, "notes.txt").exists());
+        assertTrue(join(root, "src", "x.log").exists());
+    }
+
+    @Test
+    void testNearDuplicateLargeBlobsShareChunks() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        byte[] first = new byte[3 << 20];
+        new java.util.Random(22).nextBytes(first);
+        byte[] second = new byte[first.length + 1];
+        System.arraycopy(first, 0, second, 0, 1000);
+        second[1000] = 42;
+        System.arraycopy(first, 1000, second, 1001, first.length - 1000);
+        
+        // Chunk boundaries resynchronize after the insertion
+        File file = join(tempDir.toFile(), "big.bin");
+        writeContents(file, first);
+        repo.add("big.bin");
+        repo.commit("first");
+        String firstId = readContentsAsString(Repository.HEAD);
+        int chunks = packedIds(ObjectStore.BLOB).size();
+        assertTrue(chunks >= (3 << 20) / Chunker.MAX_SIZE);
+        writeContents(file, second);
+        repo.add("big.bin");
+        repo.commit("second");
+        String secondId = readContentsAsString(Repository.HEAD);
+        assertTrue(packedIds(ObjectStore.BLOB).size() <= chunks + 2);
+        
+        ObjectStore objects = new ObjectStore(Repository.GITLET_DIR);
+        assertArrayEquals(first, objects.readBlob(sha1(first)));
+        file.delete();
+        repo.checkoutFile("big.bin");
+        assertArrayEquals(second, readContents(file));
+        
+        // Sending the second version sends only the new chunks
+        File destDir = join(tempDir.toFile(), "dest");
+        destDir.mkdir();
+        ObjectStore dest = new ObjectStore(destDir);
+        objects.sendPack(java.util.List.of(firstId), dest, true);
+        int sent = objects.sendPack(java.util.List.of(secondId), dest, true);
+        assertTrue(sent <= 5);
+        assertArrayEquals(second, dest.readBlob(sha1(second)));
+    }
+
+    @Test
+    void testTraceCountsOperationsPerPhase() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        writeContents(join(tempDir.toFile(), "a.txt"), "hello");
+        outContent.reset();
+        Main.run(new String[] {"--trace=json", "add", "a.txt"}, repo);
+        String json = outContent.toString().trim();
+        assertTrue(json.startsWith("{\"command\":\"add\","));
+        assertTrue(json.contains("{\"name\":\"hash files\","));
+        assertTrue(json.contains("\"readObject\":{\"calls\":2,"));
+        assertTrue(json.contains("{\"name\":\"update staging area\","));
+        
+        outContent.reset();
+        Main.run(new String[] {"--trace", "commit", "a"}, repo);
+        String table = outContent.toString();
+        assertTrue(table.startsWith("=== Trace: commit, "));
+        assertTrue(table.contains("\nwrite tree "));
+        assertTrue(table.contains("\n  sha1 "));
+        
+        // Once the command ends, nothing more is counted or printed
+        outContent.reset();
+        Main.run(new String[] {"log"}, repo);
+        assertFalse(outContent.toString().contains("Trace"));
+        assertEquals(0, Trace.start());
+        
+        // Objects read from a pack, and the mapping of it, are counted too
+        repo.gc();
+        outContent.reset();
+        Main.run(new String[] {"--trace=json", "checkout", "--", "a.txt"}, new Repository());
+        json = outContent.toString().trim();
+        assertTrue(json.contains("\"readPack\":{\"calls\":"));
+        assertTrue(json.contains("\"map\":{\"calls\":"));
+    }
 
+    @Test
+    void testObjectFilterAnswersMissingObjects() {
+        Repository.setupPersistence();
+        Repository repo = new Repository();
+        
+        writeContents(join(tempDir.toFile(), "a.txt"), "hello");
+        repo.add("a.txt");
+        repo.commit("a");
+        String head = readContentsAsString(Repository.HEAD);
+        File filterFile = join(Repository.GITLET_DIR, "object-filter");
+        assertTrue(filterFile.isFile());
+        
+        ObjectStore objects = new ObjectStore(Repository.GITLET_DIR);
+        assertTrue(objects.hasCommit(head));
+        assertTrue(objects.hasBlob(sha1("hello")));
+        assertFalse(objects.hasBlob(sha1("absent")));
+        assertNull(objects.readCommit(sha1("absent")));
+        
+        // Enough new objects to outgrow the filter, written and synced
+        // through another store, are still found by the first once gc has
+        // rebuilt it
+        ObjectStore other = new ObjectStore(Repository.GITLET_DIR);
+        java.util.List<String> ids = new java.util.ArrayList<>();
+        for (int i = 0; i < 3000; i += 1) {
+            other.writeBlob(sha1("blob " + i), ("blob " + i).getBytes());
+            ids.add(sha1("blob " + i));
+        }
+        other.sync();
+        repo.gc();
+        for (String id : ids) {
+            assertTrue(objects.hasBlob(id));
+        }
+        assertTrue(objects.hasCommit(head));
+        
+        // A missing filter is rebuilt from the objects
+        filterFile.delete();
+        ObjectStore fresh = new ObjectStore(Repository.GITLET_DIR);
+        assertTrue(fresh.hasBlob(ids.get(0)));
+        assertFalse(fresh.hasBlob(sha1("absent")));
+        assertTrue(filterFile.isFile());
+    }
+    
+    /** Returns the stored bytes of object ID of type TYPE in the packs of
+     *  the repository, or null. */
+    private static byte[] packedObject(String id, byte type) {
+        for (String name : plainFilenamesIn(Repository.PACK_DIR)) {
+            if (name.endsWith(".idx")) {
+                byte[] contents = new PackFile(join(Repository.PACK_DIR, name)).read(id, type);
+                if (contents != null) {
+                    return contents;
+                }
+            }
+        }
+        return null;
+    }
+    
+    /** Returns the ids of the objects of type TYPE in the packs of the
+     *  repository. */
+    private static java.util.Set<String> packedIds(byte type) {
+        java.util.Set<String> result = new java.util.HashSet<>();
+        for (String name : plainFilenamesIn(Repository.PACK_DIR)) {
+            if (name.endsWith(".idx")) {
+                result.addAll(new PackFile(join(Repository.PACK_DIR, name)).ids(type));
+            }
+        }
+        return result;
+    }
+}
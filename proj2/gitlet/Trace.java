@@ -0,0 +1,196 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counts of the file reads and writes, serializations and hashes done
+ *  through Utils while one command runs, for gitlet --trace.  A command is
+ *  divided into named phases, each counting the calls, bytes and
+ *  nanoseconds of each kind of operation along with its own elapsed time;
+ *  an operation is charged to the phase current when it ends, whichever
+ *  thread did it.  writeObject counts the serializing done for
+ *  Utils.writeObject and Journal, whose writes are counted as
+ *  writeContents.
+ *
+ *  Tracing is off unless a command is begun, and then costs a volatile
+ *  read per operation.
+ *  @author Zhang Yusen
+ */
+class Trace {
+
+    /** The kinds of operation counted.  Reads and writes of gitlet's own
+     *  files through streams and channels count as readContents and
+     *  writeContents; objects copied out of a mapped pack count as
+     *  readPack, and mapping a pack or the object filter as map. */
+    enum Op {
+        READ_CONTENTS("readContents"), WRITE_CONTENTS("writeContents"),
+        READ_OBJECT("readObject"), WRITE_OBJECT("writeObject"), SHA1("sha1"),
+        READ_PACK("readPack"), MAP("map");
+
+        /** The name of the operation in reports. */
+        private final String label;
+
+        /** An operation reported as LABEL. */
+        Op(String label) {
+            this.label = label;
+        }
+    }
+
+    /** The counts of one phase. */
+    private static class Phase {
+        /** Elapsed nanoseconds of the phase, once it has ended. */
+        private long nanos;
+        /** Calls, bytes and nanoseconds of each kind of operation, indexed
+         *  by ordinal. */
+        private final LongAdder[] calls = adders();
+        private final LongAdder[] bytes = adders();
+        private final LongAdder[] opNanos = adders();
+
+        /** Returns an array of zeroed adders, one per kind of operation. */
+        private static LongAdder[] adders() {
+            LongAdder[] result = new LongAdder[Op.values().length];
+            for (int i = 0; i < result.length; i += 1) {
+                result[i] = new LongAdder();
+            }
+            return result;
+        }
+    }
+
+    /** The command being traced, or null if tracing is off. */
+    private static volatile String command;
+    /** The phases of the command, in the order they began. */
+    private static final Map<String, Phase> PHASES = new LinkedHashMap<>();
+    /** The current phase. */
+    private static volatile Phase current;
+    /** The time at which the current phase, and the command, began. */
+    private static long phaseStart;
+    private static long commandStart;
+
+    /** Begins tracing the command COMMAND, in a phase of the same name. */
+    static synchronized void begin(String command) {
+        PHASES.clear();
+        commandStart = System.nanoTime();
+        Trace.command = command;
+        phaseStart = commandStart;
+        current = PHASES.computeIfAbsent(command, name -> new Phase());
+    }
+
+    /** Ends the current phase and begins, or resumes, the phase NAME. */
+    static synchronized void phase(String name) {
+        if (command == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        current.nanos += now - phaseStart;
+        phaseStart = now;
+        current = PHASES.computeIfAbsent(name, key -> new Phase());
+    }
+
+    /** Returns the time at which an operation starts, if tracing. */
+    static long start() {
+        return command == null ? 0 : System.nanoTime();
+    }
+
+    /** Records an operation OP on BYTES bytes that began at START. */
+    static void record(Op op, long bytes, long start) {
+        Phase phase = current;
+        if (command == null || phase == null || start == 0) {
+            return;
+        }
+        phase.calls[op.ordinal()].increment();
+        phase.bytes[op.ordinal()].add(bytes);
+        phase.opNanos[op.ordinal()].add(System.nanoTime() - start);
+    }
+
+    /** Ends tracing and returns the report, as one line of JSON if JSON
+     *  and as a table otherwise. */
+    static synchronized String end(boolean json) {
+        long now = System.nanoTime();
+        current.nanos += now - phaseStart;
+        String result = json ? json(now - commandStart) : table(now - commandStart);
+        command = null;
+        current = null;
+        PHASES.clear();
+        return result;
+    }
+
+    /** Returns the report as a table, the command having taken NANOS. */
+    private static String table(long nanos) {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("=== Trace: %s, %.3f ms ===%n", command, nanos / 1e6));
+        result.append(String.format("%-24s %8s %12s %10s%n", "phase / operation", "calls",
+                                    "bytes", "ms"));
+        long[] calls = new long[Op.values().length];
+        long[] bytes = new long[calls.length];
+        long[] opNanos = new long[calls.length];
+        for (Map.Entry<String, Phase> entry : PHASES.entrySet()) {
+            Phase phase = entry.getValue();
+            result.append(String.format("%-24s %8s %12s %10.3f%n", entry.getKey(), "", "",
+                                        phase.nanos / 1e6));
+            for (Op op : Op.values()) {
+                int i = op.ordinal();
+                if (phase.calls[i].sum() > 0) {
+                    calls[i] += phase.calls[i].sum();
+                    bytes[i] += phase.bytes[i].sum();
+                    opNanos[i] += phase.opNanos[i].sum();
+                    result.append(String.format("  %-22s %8d %12d %10.3f%n", op.label,
+                                                phase.calls[i].sum(), phase.bytes[i].sum(),
+                                                phase.opNanos[i].sum() / 1e6));
+                }
+            }
+        }
+        result.append(String.format("%-24s %8s %12s %10.3f%n", "total", "", "", nanos / 1e6));
+        for (Op op : Op.values()) {
+            int i = op.ordinal();
+            if (calls[i] > 0) {
+                result.append(String.format("  %-22s %8d %12d %10.3f%n", op.label, calls[i],
+                                            bytes[i], opNanos[i] / 1e6));
+            }
+        }
+        return result.toString();
+    }
+
+    /** Returns the report as one line of JSON, the command having taken
+     *  NANOS. */
+    private static String json(long nanos) {
+        StringBuilder result = new StringBuilder();
+        result.append("{\"command\":").append(quote(command)).append(",\"nanos\":")
+              .append(nanos).append(",\"phases\":[");
+        String separator = "";
+        for (Map.Entry<String, Phase> entry : PHASES.entrySet()) {
+            Phase phase = entry.getValue();
+            result.append(separator).append("{\"name\":").append(quote(entry.getKey()))
+                  .append(",\"nanos\":").append(phase.nanos).append(",\"ops\":{");
+            separator = ",";
+            String opSeparator = "";
+            for (Op op : Op.values()) {
+                int i = op.ordinal();
+                if (phase.calls[i].sum() > 0) {
+                    result.append(opSeparator).append(quote(op.label))
+                          .append(":{\"calls\":").append(phase.calls[i].sum())
+                          .append(",\"bytes\":").append(phase.bytes[i].sum())
+                          .append(",\"nanos\":").append(phase.opNanos[i].sum()).append('}');
+                    opSeparator = ",";
+                }
+            }
+            result.append("}}");
+        }
+        return result.append("]}").append(System.lineSeparator()).toString();
+    }
+
+    /** Returns S as a JSON string. */
+    private static String quote(String s) {
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < ' ') {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+}
@@ -0,0 +1,183 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** One directory of a commit's snapshot, like a git tree.  A tree maps
+ *  each name in the directory to either a blob id or the id of the tree
+ *  of a subdirectory, and is stored under the SHA-1 of its encoding.
+ *  Because unchanged directories keep their ids, a new commit only writes
+ *  the trees along the paths that changed, and two snapshots can be
+ *  compared without descending into subtrees with equal ids.
+ *  Paths of tracked files use '/' to separate directories.
+ *  @author Zhang Yusen
+ */
+class Tree {
+
+    /** The id of the empty tree. */
+    static final String EMPTY_ID = Utils.sha1(new Tree().encode());
+
+    /** Entries of this directory, by name. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    /** Returns the canonical encoding of this tree. */
+    byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                out.writeBoolean(e.getValue().isTree);
+                out.writeUTF(e.getKey());
+                out.write(Utils.uidToBytes(e.getValue().id));
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding tree.");
+        }
+    }
+
+    /** Returns the tree whose encoding is BYTES. */
+    static Tree decode(byte[] bytes) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            Tree tree = new Tree();
+            int n = in.readInt();
+            byte[] id = new byte[Utils.UID_LENGTH / 2];
+            for (int i = 0; i < n; i += 1) {
+                boolean isTree = in.readBoolean();
+                String name = in.readUTF();
+                in.readFully(id);
+                tree.entries.put(name, new Entry(isTree, Utils.bytesToUid(id, 0)));
+            }
+            return tree;
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt tree.");
+        }
+    }
+
+    /** Returns the id of the tree obtained from tree TREEID of STORE by
+     *  applying CHANGES, a map from path to new blob id, or to null for a
+     *  removed path.  TREEID may be null for an empty tree.  Only the trees
+     *  of directories containing a change are written to STORE. */
+    static String update(ObjectStore store, String treeId, Map<String, String> changes) {
+        Tree tree = new Tree();
+        if (treeId != null) {
+            tree.entries.putAll(store.readTree(treeId).entries);
+        }
+        HashMap<String, Map<String, String>> subChanges = new HashMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    tree.entries.remove(path);
+                } else {
+                    tree.entries.put(path, new Entry(false, change.getValue()));
+                }
+            } else {
+                subChanges.computeIfAbsent(path.substring(0, slash), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> sub : subChanges.entrySet()) {
+            Entry old = tree.entries.get(sub.getKey());
+            String oldId = old != null && old.isTree ? old.id : null;
+            String newId = update(store, oldId, sub.getValue());
+            if (newId.equals(EMPTY_ID)) {
+                tree.entries.remove(sub.getKey());
+            } else {
+                tree.entries.put(sub.getKey(), new Entry(true, newId));
+            }
+        }
+        return store.writeTree(tree);
+    }
+
+    /** Adds every file of tree TREEID of STORE to RESULT, as a map from path
+     *  to blob id, prefixing each path with PREFIX. */
+    static void flatten(ObjectStore store, String treeId, String prefix,
+                        Map<String, String> result) {
+        for (Map.Entry<String, Entry> e : store.readTree(treeId).entries.entrySet()) {
+            Entry entry = e.getValue();
+            if (entry.isTree) {
+                flatten(store, entry.id, prefix + e.getKey() + "/", result);
+            } else {
+                result.put(prefix + e.getKey(), entry.id);
+            }
+        }
+    }
+
+    /** Adds to RESULT the path of every file whose blob differs between
+     *  trees A and B of STORE, including files present in only one of
+     *  them, prefixing each path with PREFIX.  Either tree id may be null
+     *  for an empty tree.  Subtrees with equal ids are skipped. */
+    static void diff(ObjectStore store, String a, String b, String prefix,
+                     Set<String> result) {
+        if (a != null && a.equals(b)) {
+            return;
+        }
+        TreeMap<String, Entry> left = a == null ? new TreeMap<>() : store.readTree(a).entries;
+        TreeMap<String, Entry> right = b == null ? new TreeMap<>() : store.readTree(b).entries;
+        TreeMap<String, Entry> all = new TreeMap<>(left);
+        all.putAll(right);
+        for (String name : all.keySet()) {
+            Entry l = left.get(name);
+            Entry r = right.get(name);
+            if (l != null && r != null && l.isTree == r.isTree && l.id.equals(r.id)) {
+                continue;
+            }
+            String leftTree = l != null && l.isTree ? l.id : null;
+            String rightTree = r != null && r.isTree ? r.id : null;
+            if (leftTree != null || rightTree != null) {
+                diff(store, leftTree, rightTree, prefix + name + "/", result);
+            }
+            if ((l != null && !l.isTree) || (r != null && !r.isTree)) {
+                result.add(prefix + name);
+            }
+        }
+    }
+
+    /** Returns the blob ids of the files directly in this directory. */
+    List<String> blobIds() {
+        return ids(false);
+    }
+
+    /** Returns the tree ids of the subdirectories of this directory. */
+    List<String> subtreeIds() {
+        return ids(true);
+    }
+
+    /** Returns the ids of the entries that are trees iff ISTREE. */
+    private List<String> ids(boolean isTree) {
+        List<String> result = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.isTree == isTree) {
+                result.add(entry.id);
+            }
+        }
+        return result;
+    }
+
+    /** A name in a directory. */
+    private static class Entry {
+        /** True iff this names a subdirectory rather than a file. */
+        final boolean isTree;
+        /** The id of the subtree or blob. */
+        final String id;
+
+        Entry(boolean isTree, String id) {
+            this.isTree = isTree;
+            this.id = id;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,8 +10,11 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -36,33 +40,90 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        long start = Trace.start();
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
+            long bytes = 0;
             for (Object val : vals) {
                 if (val instanceof byte[]) {
                     md.update((byte[]) val);
+                    bytes += ((byte[]) val).length;
                 } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                    byte[] utf8 = ((String) val).getBytes(StandardCharsets.UTF_8);
+                    md.update(utf8);
+                    bytes += utf8.length;
                 } else {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+            String result = hex(md.digest());
+            Trace.record(Trace.Op.SHA1, bytes, start);
+            return result;
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the SHA-1 hash of the contents of FILE, which is read a
+     *  block at a time, so that it need not fit in memory.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static String sha1(File file) {
+        long start = Trace.start();
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
             }
-            return result.toString();
+            String result = hex(md.digest());
+            Trace.record(Trace.Op.SHA1, in.size(), start);
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
     }
 
+    /** Returns DIGEST as a hexadecimal numeral. */
+    private static String hex(byte[] digest) {
+        Formatter result = new Formatter();
+        for (byte b : digest) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the 20-byte binary form of the hexadecimal SHA-1 UID ID. */
+    static byte[] uidToBytes(String id) {
+        byte[] result = new byte[UID_LENGTH / 2];
+        for (int k = 0; k < result.length; k += 1) {
+            result[k] = (byte) Character.digit(id.charAt(2 * k), 16);
+            result[k] = (byte) (result[k] << 4 | Character.digit(id.charAt(2 * k + 1), 16));
+        }
+        return result;
+    }
+
+    /** Returns the hexadecimal SHA-1 UID whose binary form starts at
+     *  BYTES[OFFSET]. */
+    static String bytesToUid(byte[] bytes, int offset) {
+        char[] result = new char[UID_LENGTH];
+        for (int k = 0; k < UID_LENGTH / 2; k += 1) {
+            int b = bytes[offset + k] & 0xff;
+            result[2 * k] = Character.forDigit(b >> 4, 16);
+            result[2 * k + 1] = Character.forDigit(b & 0xf, 16);
+        }
+        return new String(result);
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -97,8 +158,11 @@ class Utils {
         if (!file.isFile()) {
             throw new IllegalArgumentException("must be a normal file");
         }
+        long start = Trace.start();
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] result = Files.readAllBytes(file.toPath());
+            Trace.record(Trace.Op.READ_CONTENTS, result.length, start);
+            return result;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -116,6 +180,7 @@ class Utils {
      *  either a String or a byte array.  Throws IllegalArgumentException
      *  in case of problems. */
     static void writeContents(File file, Object... contents) {
+        long start = Trace.start();
         try {
             if (file.isDirectory()) {
                 throw
@@ -123,28 +188,78 @@ class Utils {
             }
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+            long bytes = 0;
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] data = obj instanceof byte[] ? (byte[]) obj
+                    : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(data);
+                bytes += data.length;
             }
             str.close();
+            Trace.record(Trace.Op.WRITE_CONTENTS, bytes, start);
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
+    /** Copies the contents of file FROM to file TO, replacing it, without
+     *  reading them into memory.  Throws IllegalArgumentException in case
+     *  of problems. */
+    static void copyContents(File from, File to) {
+        long start = Trace.start();
+        try (FileChannel in = FileChannel.open(from.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(to.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            for (long done = 0; done < size; ) {
+                done += in.transferTo(done, size - done, out);
+            }
+            Trace.record(Trace.Op.WRITE_CONTENTS, size, start);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the remaining bytes of CONTENTS to FILE, replacing it.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void writeContents(File file, ByteBuffer contents) {
+        long start = Trace.start();
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long bytes = contents.remaining();
+            while (contents.hasRemaining()) {
+                out.write(contents);
+            }
+            Trace.record(Trace.Op.WRITE_CONTENTS, bytes, start);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Forces the contents of FILE, a file or a directory, to disk.  Some
+     *  platforms cannot force a directory, which is then skipped.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void sync(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!file.isDirectory()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
+        long start = Trace.start();
         try {
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
             T result = expectedClass.cast(in.readObject());
             in.close();
+            Trace.record(Trace.Op.READ_OBJECT, file.length(), start);
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
@@ -209,17 +324,35 @@ class Utils {
 
     /** Returns a byte array containing the serialized contents of OBJ. */
     static byte[] serialize(Serializable obj) {
+        long start = Trace.start();
         try {
             ByteArrayOutputStream stream = new ByteArrayOutputStream();
             ObjectOutputStream objectStream = new ObjectOutputStream(stream);
             objectStream.writeObject(obj);
             objectStream.close();
+            Trace.record(Trace.Op.WRITE_OBJECT, stream.size(), start);
             return stream.toByteArray();
         } catch (IOException excp) {
             throw error("Internal error serializing commit.");
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
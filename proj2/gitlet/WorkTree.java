@@ -0,0 +1,218 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Pattern;
+
+import static gitlet.Utils.*;
+
+/** The files of a working tree, found by listing its directories in
+ *  parallel, each subdirectory as a fork-join task.  .gitlet is never
+ *  entered, and neither is anything matched by the .gitletignore file at
+ *  the top of the tree.
+ *
+ *  Each line of .gitletignore, other than blank lines and those starting
+ *  with #, is a glob.  A glob containing a slash other than a final one
+ *  is matched against the whole path from the top of the tree, any other
+ *  against the last name in a path.  "*" matches any run of characters
+ *  but a slash, "?" any one such character, "[...]" one of a set, and
+ *  "**" runs of whole directories.  A glob ending in a slash matches only
+ *  directories, which are then not listed at all; one starting with "!"
+ *  re-includes what an earlier line excluded.  The last matching line
+ *  decides.
+ *  @author Zhang Yusen
+ */
+class WorkTree {
+
+    /** Name of the ignore file at the top of a working tree. */
+    static final String IGNORE_FILE = ".gitletignore";
+
+    /** Pool on which directories are listed. */
+    private static final ForkJoinPool SCAN_POOL =
+        new ForkJoinPool(Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    /** The top of the tree. */
+    private final Path root;
+    /** The rules of the ignore file, in order. */
+    private final List<Rule> rules = new ArrayList<>();
+
+    /** The working tree whose top directory is ROOT. */
+    WorkTree(File root) {
+        this.root = root.toPath().toAbsolutePath().normalize();
+        File ignoreFile = join(root, IGNORE_FILE);
+        if (ignoreFile.isFile()) {
+            for (String line : readContentsAsString(ignoreFile).split("\r?\n")) {
+                String glob = line.trim();
+                if (!glob.isEmpty() && !glob.startsWith("#")) {
+                    rules.add(new Rule(glob));
+                }
+            }
+        }
+    }
+
+    /** Returns the sorted paths, relative to the top of the tree and
+     *  separated by "/", of every file in the tree that is not ignored. */
+    List<String> files() {
+        return files(root.toFile());
+    }
+
+    /** Returns the sorted paths, relative to the top of the tree, of every
+     *  file that is not ignored under DIR, a directory of the tree. */
+    List<String> files(File dir) {
+        Path start = dir.toPath().toAbsolutePath().normalize();
+        String prefix = root.equals(start) ? "" : path(root.relativize(start)) + "/";
+        List<String> result = SCAN_POOL.invoke(new Scan(start, prefix));
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Returns true iff PATH, relative to the top of the tree, is ignored;
+     *  DIRECTORY tells whether it names a directory. */
+    boolean ignored(String path, boolean directory) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        if (name.equals(".gitlet")) {
+            return true;
+        }
+        boolean result = false;
+        for (Rule rule : rules) {
+            if (rule.matches(path, name, directory)) {
+                result = !rule.negated;
+            }
+        }
+        return result;
+    }
+
+    /** Returns RELATIVE with its names separated by "/". */
+    private static String path(Path relative) {
+        return relative.toString().replace(File.separatorChar, '/');
+    }
+
+    /** The listing of one directory and, in subtasks, of those under it. */
+    private class Scan extends RecursiveTask<List<String>> {
+
+        /** Tasks are never serialized, but ForkJoinTask is Serializable. */
+        private static final long serialVersionUID = 6132490815826601234L;
+
+        /** The directory listed. */
+        private final Path dir;
+        /** The path of DIR relative to the top of the tree, with a final
+         *  slash unless it is the top. */
+        private final String prefix;
+
+        /** A task listing DIR, whose path in the tree is PREFIX. */
+        Scan(Path dir, String prefix) {
+            this.dir = dir;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> result = new ArrayList<>();
+            List<Scan> subdirs = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    String path = prefix + entry.getFileName();
+                    BasicFileAttributes attrs = Files.readAttributes(
+                        entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        if (!ignored(path, true)) {
+                            Scan scan = new Scan(entry, path + "/");
+                            scan.fork();
+                            subdirs.add(scan);
+                        }
+                    } else if ((attrs.isRegularFile() || Files.isRegularFile(entry))
+                               && !ignored(path, false)) {
+                        result.add(path);
+                    }
+                }
+            } catch (IOException excp) {
+                /* An unreadable or vanished directory has no files. */
+            }
+            for (Scan scan : subdirs) {
+                result.addAll(scan.join());
+            }
+            return result;
+        }
+    }
+
+    /** One line of the ignore file. */
+    private static class Rule {
+
+        /** The compiled glob. */
+        private final Pattern pattern;
+        /** True iff the line re-includes what it matches. */
+        private final boolean negated;
+        /** True iff the line matches only directories. */
+        private final boolean directoryOnly;
+        /** True iff the glob is matched against whole paths rather than
+         *  last names. */
+        private final boolean anchored;
+
+        /** The rule for the line GLOB. */
+        Rule(String glob) {
+            negated = glob.startsWith("!");
+            if (negated) {
+                glob = glob.substring(1);
+            }
+            directoryOnly = glob.endsWith("/");
+            if (directoryOnly) {
+                glob = glob.substring(0, glob.length() - 1);
+            }
+            anchored = glob.contains("/");
+            if (glob.startsWith("/")) {
+                glob = glob.substring(1);
+            }
+            pattern = Pattern.compile(regex(glob));
+        }
+
+        /** Returns true iff this rule matches PATH, whose last name is NAME
+         *  and which is a directory iff DIRECTORY. */
+        boolean matches(String path, String name, boolean directory) {
+            if (directoryOnly && !directory) {
+                return false;
+            }
+            return pattern.matcher(anchored ? path : name).matches();
+        }
+
+        /** Returns a regular expression matching what GLOB does. */
+        private static String regex(String glob) {
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < glob.length(); i += 1) {
+                char c = glob.charAt(i);
+                if (c == '*' && glob.startsWith("**/", i)) {
+                    result.append("(?:.*/)?");
+                    i += 2;
+                } else if (c == '*' && glob.startsWith("**", i)) {
+                    result.append(".*");
+                    i += 1;
+                } else if (c == '*') {
+                    result.append("[^/]*");
+                } else if (c == '?') {
+                    result.append("[^/]");
+                } else if (c == '[' && glob.indexOf(']', i + 2) > 0) {
+                    int end = glob.indexOf(']', i + 2);
+                    String set = glob.substring(i + 1, end);
+                    if (set.startsWith("!")) {
+                        set = "^" + set.substring(1);
+                    }
+                    result.append('[').append(set.replace("\\", "\\\\")
+                                                 .replace("[", "\\[")).append(']');
+                    i = end;
+                } else {
+                    result.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return result.toString();
+        }
+    }
+}